@@ -1,41 +1,56 @@
 package appbus.proxy;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
-import java.util.Arrays;
-
-import org.json.simple.JSONObject;
-
+import appbus.proxy.config.ApplicationInterfacesProperties;
+import appbus.proxy.execution.OperationMetrics;
+import appbus.proxy.execution.PrioritizedInvocation;
+import appbus.proxy.invocation.InstanceProvider;
+import appbus.proxy.invocation.InvokerCache;
+import appbus.proxy.invocation.ResolvedInvoker;
+import appbus.proxy.invocation.ResultCache;
 import appbus.proxy.model.requests.PostRequest;
-import appbus.proxy.model.resources.QueueMap;
-import appbus.proxy.model.resources.ResultMap;
+import appbus.proxy.model.resources.RequestRecord;
+import appbus.proxy.model.resources.RequestRetention;
+import appbus.proxy.model.resources.SerializedResult;
 
 /**
  * 
- * Class where the invocation of the specified <tt>method</tt> is done.
- * Reflection is used to get the <tt>class</tt> that implements the specified
- * <tt>method</tt> as well as to invoke the <tt>method</tt>. Class is
- * implementing <tt>Runnable</tt> interface in order that the invocations can
- * easily be executed in separate threads.
+ * Class where the invocation of the specified <tt>method</tt> is done. The
+ * <tt>method</tt> is resolved by the {@link InvokerCache} and invoked through
+ * its cached <tt>MethodHandle</tt>, the result is stored in the
+ * {@link RequestRecord} of the request. Class is implementing
+ * <tt>Runnable</tt> interface in order that the invocations can easily be
+ * executed in separate threads.
  * 
  * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
  *
  */
-public class AppBusProxy implements Runnable {
+public class AppBusProxy implements PrioritizedInvocation {
 
 	// just for logging
 	private final static String PROXY = "AppBusProxy: ";
 
-	private static final QueueMap queue = new QueueMap();
-	private static final ResultMap results = new ResultMap();
+	private static final RequestRetention retention = new RequestRetention();
 
 	private PostRequest postRequest;
-	private Integer requestID;
+	private RequestRecord record;
+	private final long submittedAt = System.nanoTime();
 
-	public AppBusProxy(PostRequest postRequest, Integer id) {
+	public AppBusProxy(PostRequest postRequest, RequestRecord record) {
 		this.postRequest = postRequest;
-		this.requestID = id;
+		this.record = record;
+	}
+
+	/**
+	 * @return priority of the request or else the default priority of the
+	 *         class
+	 */
+	@Override
+	public int getPriority() {
+		Integer priority = postRequest.getPriority();
+		if (priority != null) {
+			return priority;
+		}
+		return ApplicationInterfacesProperties.get(postRequest.getClassName()).getPriority();
 	}
 
 	@Override
@@ -46,127 +61,67 @@ public class AppBusProxy implements Runnable {
 		Class<?>[] classes = postRequest.getClassesList();
 		Object[] params = postRequest.getParamsList();
 
-		Method method = null;
 		Object returnValue = null;
-		Class<?> cls = null;
-		JSONObject obj = null;
+		byte[] body = null;
 		Object classInstance = null;
+		InstanceProvider instanceProvider = null;
+		boolean succeeded = false;
+		ResolvedInvoker invoker = null;
 
-		try {
-			cls = Class.forName(clazz);
-
-			Method tempMethod = null;
-			Class<?>[] c = null;
-
-			for (Method m : cls.getMethods()) {
-				if (m.getName().equals(methodName)) {
+		if (!record.start()) {
+			return;
+		}
+		long startedAt = System.nanoTime();
 
-					c = m.getParameterTypes();
-					if (Arrays.equals(c, classes)) {
-						System.out.println(PROXY + "Method with matching paramter types found.");
-						method = m;
-						break;
-					}
-					tempMethod = m;
-				}
-			}
+		try {
+			invoker = InvokerCache.get(clazz, methodName, classes);
 
-			if (method == null && tempMethod != null) {
-				method = tempMethod;
-
-				if (params != null && params.length == c.length) {
-
-					// Some "dumb" prototype parameter type casting
-					System.out.println(PROXY + "Casting needed:");
-
-					for (int i = 0; i < params.length; i++) {
-
-						if (!params[i].getClass().getName().equals(c[i].getName())) {
-
-							System.out.println(PROXY + "Actual type: " + params[i].getClass().getName());
-							System.out.println(PROXY + "Needed type: " + c[i].getName());
-
-							if (params[i] instanceof String) {
-								if (c[i].getName().equals("java.lang.Integer") || c[i].getName().equals("int")) {
-									params[i] = Integer.parseInt((String) params[i]);
-								} else if (c[i].getName().equals("java.lang.Float") || c[i].getName().equals("float")) {
-									params[i] = Float.parseFloat((String) params[i]);
-								} else if (c[i].getName().equals("java.lang.Double")
-										|| c[i].getName().equals("double")) {
-									params[i] = Double.parseDouble((String) params[i]);
-								} else if (c[i].getName().equals("java.lang.Boolean")
-										|| c[i].getName().equals("boolean")) {
-									params[i] = Boolean.parseBoolean((String) params[i]);
-								}
-
-							} else if (params[i].getClass().getName().contains("Long")) {
-
-								if (c[i].getName().equals("java.lang.Integer") || c[i].getName().equals("int")) {
-									params[i] = ((Long) params[i]).intValue();
-								} else if (c[i].getName().equals("java.lang.Float") || c[i].getName().equals("float")) {
-									params[i] = (float) ((Long) params[i]);
-								} else if (c[i].getName().equals("java.lang.Double")
-										|| c[i].getName().equals("double")) {
-									params[i] = (double) ((Long) params[i]);
-								}
-
-							} else {
-								if (c[i].isInstance(params[i])) {
-									params[i] = convertInstanceOfObject(params[i], c[i]);
-								}
-							}
-
-							System.out.println(PROXY + "New Type: " + params[i].getClass().getName());
-						}
-					}
-
-				} else {
-					System.out.println(PROXY + "Number of specified parameter (" + params.length
-							+ ") are not equal with number of expected paramters (" + c.length + ") of method: "
-							+ methodName);
-				}
-			}
+			if (invoker != null) {
 
-			if (method != null) {
+				Object[] args = invoker.coerce(params);
 
-				if (method.getModifiers() != Modifier.STATIC) {
-					classInstance = cls.newInstance();
+				if (!invoker.isStatic()) {
+					classInstance = invoker.getInstanceProvider().acquire();
+					instanceProvider = invoker.getInstanceProvider();
 				}
 
 				System.out.println(PROXY + "Invoking the method: " + methodName);
 
-				returnValue = method.invoke(classInstance, params);
+				returnValue = invoker.invoke(classInstance, args);
 
 				System.out.println(PROXY + "Invocation of method: " + methodName + " finished.");
 
-				obj = new JSONObject();
-				if (returnValue != null) {
-					obj.put("result", returnValue);
-				} else {
-					obj.put("result", "void");
-				}
+				// Serialized once, requests only copy the bytes
+				body = SerializedResult.serialize(returnValue, postRequest.getResultFormat());
 
-				results.put(requestID, obj);
+				succeeded = record.succeed(body);
+				if (succeeded) {
+					ResultCache.put(postRequest, body);
+				}
 			} else {
-				System.out.println(PROXY + "No method with name " + methodName + " found.");
+				System.out.println(PROXY + "No method with name " + methodName + " and " + classes.length
+						+ " parameter(s) found.");
 			}
 
-		} catch (SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException
-				| InstantiationException | ClassNotFoundException e) {
+		} catch (Throwable e) {
 			System.out.println(PROXY + "Inovcation of method: " + methodName + " failed.");
 			e.printStackTrace();
 		} finally {
-			queue.put(requestID, true);
-		}
-	}
-
-	private static <T> T convertInstanceOfObject(Object o, Class<T> clazz) throws ClassCastException {
-		try {
-			return clazz.cast(o);
-		} catch (ClassCastException e) {
-			System.out.println(PROXY + "Can't cast: " + o.toString() + " of type: " + o.getClass() + " to: " + clazz);
+			record.detach();
+			if (instanceProvider != null) {
+				instanceProvider.release(classInstance);
+			}
+			// Only resolved operations, so clients can't add arbitrary entries
+			if (invoker != null) {
+				OperationMetrics metrics = OperationMetrics.get(clazz, methodName);
+				metrics.queued(startedAt - submittedAt);
+				metrics.executed(System.nanoTime() - startedAt, succeeded);
+			}
+			// A request that timed out or was cancelled is already registered
+			if (succeeded || record.fail()) {
+				retention.finished(record.getId());
+			}
 		}
-		return null;
 	}
 
 }
@@ -0,0 +1,214 @@
+package appbus.proxy.config;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import appbus.proxy.invocation.InstanceScope;
+
+/**
+ *
+ * Proxy side view of an <tt>ApplicationInterfaceInformation</tt> element of the
+ * <tt>ApplicationInterfacesProperties</tt>. Contains the settings that are
+ * declared next to the mapping of an interface to its implementing
+ * <tt>class</tt>.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class ApplicationInterfaceInformation {
+
+	private final String name;
+	private final String clazz;
+	private InstanceScope instanceScope = InstanceScope.CALL;
+	private int poolSize = Runtime.getRuntime().availableProcessors();
+	private int maxConcurrency;
+	private int maxQueued;
+	private int priority;
+	private long timeout;
+	private Set<String> safeOperations = Collections.emptySet();
+	private Set<String> cacheableOperations = Collections.emptySet();
+	private int cacheSize = 1000;
+	private long cacheTtl = 60000;
+
+	/**
+	 * @param name
+	 *            of the interface
+	 * @param clazz
+	 *            implementing the interface
+	 */
+	public ApplicationInterfaceInformation(String name, String clazz) {
+		this.name = name;
+		this.clazz = clazz;
+	}
+
+	/**
+	 * @return name of the interface
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return name of the class implementing the interface
+	 */
+	public String getClazz() {
+		return clazz;
+	}
+
+	/**
+	 * @return how instances of the class are created and reused
+	 */
+	public InstanceScope getInstanceScope() {
+		return instanceScope;
+	}
+
+	/**
+	 * @param instanceScope
+	 */
+	public void setInstanceScope(InstanceScope instanceScope) {
+		this.instanceScope = instanceScope;
+	}
+
+	/**
+	 * @return maximum number of instances if the scope is
+	 *         {@link InstanceScope#POOL}
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	/**
+	 * @param poolSize
+	 */
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * @return maximum number of concurrent invocations of the class.
+	 *         <tt>0</tt> if the class shares the executor with all classes
+	 *         without a limit.
+	 */
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * @param maxConcurrency
+	 */
+	public void setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = maxConcurrency;
+	}
+
+	/**
+	 * @return maximum number of invocations of the class waiting for one of
+	 *         the concurrent invocations to finish
+	 */
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * @param maxQueued
+	 */
+	public void setMaxQueued(int maxQueued) {
+		this.maxQueued = maxQueued;
+	}
+
+	/**
+	 * @return default priority of invocations of the class, higher values are
+	 *         executed first
+	 */
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @param priority
+	 */
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * @return default time in milliseconds after which invocations of the
+	 *         class time out. <tt>0</tt> if the default of the proxy applies.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * @param timeout
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @param operation
+	 *            name of the operation
+	 * @return <tt>true</tt> if the operation has no side effects, so identical
+	 *         invocations in flight can share one execution. Otherwise
+	 *         <tt>false</tt>
+	 */
+	public boolean isSafe(String operation) {
+		return safeOperations.contains(operation);
+	}
+
+	/**
+	 * @param safeOperations
+	 *            names of the operations without side effects
+	 */
+	public void setSafeOperations(Collection<String> safeOperations) {
+		this.safeOperations = new HashSet<String>(safeOperations);
+	}
+
+	/**
+	 * @param operation
+	 *            name of the operation
+	 * @return <tt>true</tt> if the result of the operation only depends on
+	 *         its parameters and can be cached. Otherwise <tt>false</tt>
+	 */
+	public boolean isCacheable(String operation) {
+		return cacheableOperations.contains(operation);
+	}
+
+	/**
+	 * @param cacheableOperations
+	 *            names of the operations whose results can be cached
+	 */
+	public void setCacheableOperations(Collection<String> cacheableOperations) {
+		this.cacheableOperations = new HashSet<String>(cacheableOperations);
+	}
+
+	/**
+	 * @return maximum number of cached results of the class
+	 */
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	/**
+	 * @param cacheSize
+	 */
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	/**
+	 * @return time in milliseconds results of the class are cached
+	 */
+	public long getCacheTtl() {
+		return cacheTtl;
+	}
+
+	/**
+	 * @param cacheTtl
+	 */
+	public void setCacheTtl(long cacheTtl) {
+		this.cacheTtl = cacheTtl;
+	}
+}
@@ -0,0 +1,146 @@
+package appbus.proxy.config;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import appbus.proxy.invocation.InstanceScope;
+
+/**
+ *
+ * Reads the <tt>ApplicationInterfacesProperties</tt> of the deployed
+ * application and manages the contained {@link ApplicationInterfaceInformation}
+ * per implementing <tt>class</tt>. The document can either be a single
+ * <tt>ApplicationInterfacesProperties</tt> element or a whole TOSCA definitions
+ * file containing it.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class ApplicationInterfacesProperties {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	final static String NAMESPACE = "http://www.uni-stuttgart.de/opentosca";
+	final static String INFORMATION_NAME = "ApplicationInterfaceInformation";
+
+	private static ConcurrentHashMap<String, ApplicationInterfaceInformation> informations = new ConcurrentHashMap<String, ApplicationInterfaceInformation>();
+
+	/**
+	 * Parses the specified document and registers all contained
+	 * <tt>ApplicationInterfaceInformation</tt> elements.
+	 *
+	 * @param in
+	 *            document containing the ApplicationInterfacesProperties
+	 * @throws ParserConfigurationException
+	 * @throws SAXException
+	 * @throws IOException
+	 */
+	public static void load(InputStream in) throws ParserConfigurationException, SAXException, IOException {
+
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		factory.setExpandEntityReferences(false);
+		DocumentBuilder builder = factory.newDocumentBuilder();
+
+		Document document = builder.parse(in);
+
+		NodeList nodes = document.getElementsByTagNameNS(NAMESPACE, INFORMATION_NAME);
+
+		System.out.println(PROXY + "Found " + nodes.getLength() + " " + INFORMATION_NAME + " elements.");
+
+		for (int i = 0; i < nodes.getLength(); i++) {
+			Element element = (Element) nodes.item(i);
+
+			String clazz = element.getAttribute("class");
+			if (clazz.isEmpty()) {
+				continue;
+			}
+
+			ApplicationInterfaceInformation information = new ApplicationInterfaceInformation(
+					element.getAttribute("name"), clazz);
+
+			information.setInstanceScope(InstanceScope.fromString(element.getAttribute("instanceScope")));
+
+			String poolSize = element.getAttribute("poolSize");
+			if (!poolSize.isEmpty()) {
+				information.setPoolSize(Integer.parseInt(poolSize.trim()));
+			}
+
+			String maxConcurrency = element.getAttribute("maxConcurrency");
+			if (!maxConcurrency.isEmpty()) {
+				information.setMaxConcurrency(Integer.parseInt(maxConcurrency.trim()));
+			}
+
+			String maxQueued = element.getAttribute("maxQueued");
+			if (!maxQueued.isEmpty()) {
+				information.setMaxQueued(Integer.parseInt(maxQueued.trim()));
+			}
+
+			String priority = element.getAttribute("priority");
+			if (!priority.isEmpty()) {
+				information.setPriority(Integer.parseInt(priority.trim()));
+			}
+
+			String timeout = element.getAttribute("timeout");
+			if (!timeout.isEmpty()) {
+				information.setTimeout(Long.parseLong(timeout.trim()));
+			}
+
+			String safeOperations = element.getAttribute("safeOperations").trim();
+			if (!safeOperations.isEmpty()) {
+				information.setSafeOperations(Arrays.asList(safeOperations.split("\\s+")));
+			}
+
+			String cacheableOperations = element.getAttribute("cacheableOperations").trim();
+			if (!cacheableOperations.isEmpty()) {
+				information.setCacheableOperations(Arrays.asList(cacheableOperations.split("\\s+")));
+			}
+
+			String cacheSize = element.getAttribute("cacheSize");
+			if (!cacheSize.isEmpty()) {
+				information.setCacheSize(Integer.parseInt(cacheSize.trim()));
+			}
+
+			String cacheTtl = element.getAttribute("cacheTtl");
+			if (!cacheTtl.isEmpty()) {
+				information.setCacheTtl(Long.parseLong(cacheTtl.trim()));
+			}
+
+			System.out.println(PROXY + "Class: " + clazz + " Scope: " + information.getInstanceScope());
+
+			informations.put(clazz, information);
+		}
+	}
+
+	/**
+	 * @param className
+	 * @return the information declared for the specified class. If nothing was
+	 *         declared an information with the default settings.
+	 */
+	public static ApplicationInterfaceInformation get(String className) {
+		ApplicationInterfaceInformation information = informations.get(className);
+		if (information == null) {
+			information = new ApplicationInterfaceInformation(null, className);
+		}
+		return information;
+	}
+
+	/**
+	 * Removes all registered information.
+	 */
+	public static void clear() {
+		informations.clear();
+	}
+}
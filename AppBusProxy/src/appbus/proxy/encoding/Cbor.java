@@ -0,0 +1,355 @@
+package appbus.proxy.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ *
+ * Encoder and decoder of CBOR (RFC 7049) for the data model of the JSON/HTTP
+ * API. Objects are decoded to {@literal LinkedHashMap}s in order to keep the
+ * order of the parameters, arrays to {@literal List}s, integers to
+ * <tt>Long</tt> and floating point numbers to <tt>Double</tt>, like the JSON
+ * parser does. Byte strings are decoded to <tt>byte[]</tt>, tags are ignored.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class Cbor {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// Major types
+	private static final int UNSIGNED = 0;
+	private static final int NEGATIVE = 1;
+	private static final int BYTES = 2;
+	private static final int TEXT = 3;
+	private static final int ARRAY = 4;
+	private static final int MAP = 5;
+	private static final int TAG = 6;
+	private static final int SIMPLE = 7;
+
+	private static final int FALSE = 0xf4;
+	private static final int TRUE = 0xf5;
+	private static final int NULL = 0xf6;
+	private static final int UNDEFINED = 0xf7;
+	private static final int FLOAT64 = 0xfb;
+	private static final int BREAK = 0xff;
+
+	private static final int INDEFINITE = 31;
+
+	// Limit of nested arrays and maps
+	private static final int MAX_DEPTH = 256;
+
+	// Bytes allocated at once while reading strings of the declared length
+	private static final int CHUNK = 64 * 1024;
+
+	/**
+	 * @param value
+	 *            map, collection, array, string, number, boolean, byte array
+	 *            or <tt>null</tt>. Other objects are encoded by their
+	 *            <tt>toString()</tt>, like the JSON encoder does.
+	 * @return the encoded value
+	 */
+	public static byte[] encode(Object value) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(value, out);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads one data item.
+	 *
+	 * @param in
+	 *            encoded data
+	 * @return the decoded value
+	 * @throws IOException
+	 *             if the data is no well-formed CBOR
+	 */
+	public static Object decode(InputStream in) throws IOException {
+		Object value = read(in, 0);
+		if (value == Break.INSTANCE) {
+			throw new IOException("Unexpected break in CBOR data.");
+		}
+		return value;
+	}
+
+	private static void write(Object value, ByteArrayOutputStream out) {
+
+		if (value == null) {
+			out.write(NULL);
+
+		} else if (value instanceof Boolean) {
+			out.write((Boolean) value ? TRUE : FALSE);
+
+		} else if (value instanceof Long || value instanceof Integer || value instanceof Short
+				|| value instanceof Byte) {
+			long l = ((Number) value).longValue();
+			if (l >= 0) {
+				writeHeader(UNSIGNED, l, out);
+			} else {
+				writeHeader(NEGATIVE, -1 - l, out);
+			}
+
+		} else if (value instanceof BigInteger && ((BigInteger) value).bitLength() < 64) {
+			write(((BigInteger) value).longValue(), out);
+
+		} else if (value instanceof Number) {
+			long bits = Double.doubleToLongBits(((Number) value).doubleValue());
+			out.write(FLOAT64);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				out.write((int) (bits >>> shift));
+			}
+
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			writeHeader(BYTES, bytes.length, out);
+			out.write(bytes, 0, bytes.length);
+
+		} else if (value instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			writeHeader(MAP, map.size(), out);
+			for (Entry<?, ?> entry : map.entrySet()) {
+				write(String.valueOf(entry.getKey()), out);
+				write(entry.getValue(), out);
+			}
+
+		} else if (value instanceof Collection) {
+			Collection<?> collection = (Collection<?>) value;
+			writeHeader(ARRAY, collection.size(), out);
+			for (Object element : collection) {
+				write(element, out);
+			}
+
+		} else if (value.getClass().isArray()) {
+			int length = Array.getLength(value);
+			writeHeader(ARRAY, length, out);
+			for (int i = 0; i < length; i++) {
+				write(Array.get(value, i), out);
+			}
+
+		} else {
+			byte[] text = value.toString().getBytes(UTF_8);
+			writeHeader(TEXT, text.length, out);
+			out.write(text, 0, text.length);
+		}
+	}
+
+	private static void writeHeader(int majorType, long length, ByteArrayOutputStream out) {
+		int type = majorType << 5;
+		if (length < 24) {
+			out.write(type | (int) length);
+		} else if (length < 0x100) {
+			out.write(type | 24);
+			out.write((int) length);
+		} else if (length < 0x10000) {
+			out.write(type | 25);
+			out.write((int) (length >>> 8));
+			out.write((int) length);
+		} else if (length < 0x100000000L) {
+			out.write(type | 26);
+			for (int shift = 24; shift >= 0; shift -= 8) {
+				out.write((int) (length >>> shift));
+			}
+		} else {
+			out.write(type | 27);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				out.write((int) (length >>> shift));
+			}
+		}
+	}
+
+	private static Object read(InputStream in, int depth) throws IOException {
+
+		if (depth > MAX_DEPTH) {
+			throw new IOException("CBOR data nested too deeply.");
+		}
+
+		int initial = readByte(in);
+		int majorType = initial >>> 5;
+		int info = initial & 0x1f;
+
+		switch (majorType) {
+		case UNSIGNED:
+			return readLength(info, in);
+
+		case NEGATIVE:
+			return -1 - readLength(info, in);
+
+		case BYTES:
+			return readString(info, BYTES, in);
+
+		case TEXT:
+			return new String(readString(info, TEXT, in), UTF_8);
+
+		case ARRAY: {
+			List<Object> list = new ArrayList<Object>();
+			if (info == INDEFINITE) {
+				Object element;
+				while ((element = read(in, depth + 1)) != Break.INSTANCE) {
+					list.add(element);
+				}
+			} else {
+				for (long i = readLength(info, in); i > 0; i--) {
+					list.add(readItem(in, depth + 1));
+				}
+			}
+			return list;
+		}
+
+		case MAP: {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			if (info == INDEFINITE) {
+				Object key;
+				while ((key = read(in, depth + 1)) != Break.INSTANCE) {
+					map.put(String.valueOf(key), readItem(in, depth + 1));
+				}
+			} else {
+				for (long i = readLength(info, in); i > 0; i--) {
+					map.put(String.valueOf(readItem(in, depth + 1)), readItem(in, depth + 1));
+				}
+			}
+			return map;
+		}
+
+		case TAG:
+			readLength(info, in);
+			return readItem(in, depth + 1);
+
+		default:
+			return readSimple(initial, in);
+		}
+	}
+
+	private static Object readItem(InputStream in, int depth) throws IOException {
+		Object value = read(in, depth);
+		if (value == Break.INSTANCE) {
+			throw new IOException("Unexpected break in CBOR data.");
+		}
+		return value;
+	}
+
+	private static Object readSimple(int initial, InputStream in) throws IOException {
+		switch (initial) {
+		case FALSE:
+			return Boolean.FALSE;
+		case TRUE:
+			return Boolean.TRUE;
+		case NULL:
+		case UNDEFINED:
+			return null;
+		case BREAK:
+			return Break.INSTANCE;
+		case 0xf9:
+			return (double) halfToFloat((int) readUnsigned(2, in));
+		case 0xfa:
+			return (double) Float.intBitsToFloat((int) readUnsigned(4, in));
+		case FLOAT64:
+			return Double.longBitsToDouble(readUnsigned(8, in));
+		default:
+			throw new IOException("Unsupported CBOR simple value: " + initial);
+		}
+	}
+
+	/**
+	 * Reads a definite or indefinite length string of the specified major
+	 * type.
+	 */
+	private static byte[] readString(int info, int majorType, InputStream in) throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		if (info == INDEFINITE) {
+			int initial;
+			while ((initial = readByte(in)) != BREAK) {
+				if (initial >>> 5 != majorType || (initial & 0x1f) == INDEFINITE) {
+					throw new IOException("Invalid chunk of CBOR string.");
+				}
+				readFully(readLength(initial & 0x1f, in), in, out);
+			}
+		} else {
+			readFully(readLength(info, in), in, out);
+		}
+		return out.toByteArray();
+	}
+
+	private static void readFully(long length, InputStream in, ByteArrayOutputStream out) throws IOException {
+		if (length < 0) {
+			throw new IOException("CBOR string too long.");
+		}
+		byte[] buffer = new byte[(int) Math.min(length, CHUNK)];
+		while (length > 0) {
+			int n = in.read(buffer, 0, (int) Math.min(length, buffer.length));
+			if (n < 0) {
+				throw new EOFException("Unexpected end of CBOR data.");
+			}
+			out.write(buffer, 0, n);
+			length -= n;
+		}
+	}
+
+	private static long readLength(int info, InputStream in) throws IOException {
+		if (info < 24) {
+			return info;
+		}
+		switch (info) {
+		case 24:
+			return readUnsigned(1, in);
+		case 25:
+			return readUnsigned(2, in);
+		case 26:
+			return readUnsigned(4, in);
+		case 27:
+			return readUnsigned(8, in);
+		default:
+			throw new IOException("Invalid CBOR length: " + info);
+		}
+	}
+
+	private static long readUnsigned(int bytes, InputStream in) throws IOException {
+		long value = 0;
+		for (int i = 0; i < bytes; i++) {
+			value = (value << 8) | readByte(in);
+		}
+		return value;
+	}
+
+	private static int readByte(InputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Unexpected end of CBOR data.");
+		}
+		return b;
+	}
+
+	private static float halfToFloat(int half) {
+		int exponent = (half >>> 10) & 0x1f;
+		int mantissa = half & 0x3ff;
+		float value;
+		if (exponent == 0) {
+			value = mantissa * (float) Math.pow(2, -24);
+		} else if (exponent == 31) {
+			value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+		} else {
+			value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+		}
+		return (half & 0x8000) != 0 ? -value : value;
+	}
+
+	/**
+	 * Marks the end of an indefinite length array or map.
+	 */
+	private enum Break {
+		INSTANCE
+	}
+}
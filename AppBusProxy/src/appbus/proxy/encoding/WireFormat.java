@@ -0,0 +1,101 @@
+package appbus.proxy.encoding;
+
+/**
+ *
+ * Encodings of requests and results supported by the proxy. JSON is the
+ * default, CBOR is a compact binary encoding of the same data model. The
+ * encoding of a request is specified by its <tt>Content-Type</tt>, the
+ * encoding of a result is negotiated by the <tt>Accept</tt> header.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public enum WireFormat {
+
+	JSON("application/json"), CBOR("application/cbor");
+
+	private final String contentType;
+
+	private WireFormat(String contentType) {
+		this.contentType = contentType;
+	}
+
+	/**
+	 * @return media type of the encoding
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @param contentType
+	 *            of a request, may contain parameters like the charset
+	 * @return encoding of the request body. <tt>JSON</tt> if the content type
+	 *         is missing or unknown.
+	 */
+	public static WireFormat fromContentType(String contentType) {
+		if (contentType != null && mediaType(contentType).equals(CBOR.contentType)) {
+			return CBOR;
+		}
+		return JSON;
+	}
+
+	/**
+	 * @param accept
+	 *            <tt>Accept</tt> header of a request
+	 * @param fallback
+	 *            encoding if the client accepts any encoding
+	 * @return the first supported encoding accepted by the client. The
+	 *         fallback if none is listed.
+	 */
+	public static WireFormat fromAccept(String accept, WireFormat fallback) {
+		if (accept == null) {
+			return fallback;
+		}
+		for (String range : accept.split(",")) {
+			String[] parts = range.split(";");
+			if (isRejected(parts)) {
+				continue;
+			}
+			String mediaType = mediaType(parts[0]);
+			for (WireFormat format : values()) {
+				if (format.contentType.equals(mediaType)) {
+					return format;
+				}
+			}
+		}
+		return fallback;
+	}
+
+	/**
+	 * @param body
+	 *            serialized by the proxy
+	 * @return encoding of the body. A JSON body is an object and starts with
+	 *         <tt>{</tt>, which is no valid start of a CBOR map.
+	 */
+	public static WireFormat of(byte[] body) {
+		return body.length > 0 && body[0] == '{' ? JSON : CBOR;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the media range has the quality <tt>0</tt>
+	 */
+	private static boolean isRejected(String[] parts) {
+		for (int i = 1; i < parts.length; i++) {
+			String parameter = parts[i].trim();
+			if (parameter.startsWith("q=")) {
+				try {
+					return Double.parseDouble(parameter.substring(2)) <= 0;
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static String mediaType(String value) {
+		int parameters = value.indexOf(';');
+		return (parameters >= 0 ? value.substring(0, parameters) : value).trim().toLowerCase();
+	}
+}
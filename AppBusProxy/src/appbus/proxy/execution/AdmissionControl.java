@@ -0,0 +1,176 @@
+package appbus.proxy.execution;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Limits the number of outstanding invocations (running and queued) to the
+ * capacity of the executor. A request is only accepted if a permit is
+ * available, before a requestID is allocated. Otherwise the client is told to
+ * retry after the time the outstanding invocations need to drain, estimated
+ * from the rate at which invocations finished recently. Without a queue, e.g.
+ * with virtual threads, these are the running invocations.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class AdmissionControl {
+
+	// Bounds of the Retry-After in seconds
+	private static final long MIN_RETRY_AFTER = 1;
+	private static final long MAX_RETRY_AFTER = 60;
+
+	// Minimum interval between two updates of the drain rate
+	private static final long RATE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	private final int poolSize;
+	private final int queueSize;
+	private final Semaphore permits;
+
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	// Drain rate in invocations per second, smoothed exponentially
+	private volatile double drainRate;
+	private volatile long lastCompleted;
+	private volatile long lastUpdate = System.nanoTime();
+
+	/**
+	 * @param poolSize
+	 *            number of invocations running at the same time
+	 * @param queueSize
+	 *            number of invocations waiting for a thread
+	 */
+	public AdmissionControl(int poolSize, int queueSize) {
+		this.poolSize = poolSize;
+		this.queueSize = queueSize;
+		this.permits = new Semaphore(poolSize + queueSize);
+	}
+
+	/**
+	 * @param count
+	 *            number of invocations, e.g. of a batch
+	 * @return <tt>true</tt> if all invocations are admitted. Otherwise
+	 *         <tt>false</tt> and none is admitted.
+	 */
+	public boolean tryAcquire(int count) {
+		if (permits.tryAcquire(count)) {
+			return true;
+		}
+		rejected.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Returns the permit of an admitted invocation that was not executed.
+	 */
+	public void release() {
+		permits.release();
+	}
+
+	/**
+	 * @param invocation
+	 *            admitted invocation
+	 * @return invocation that returns its permit when finished
+	 */
+	public Runnable wrap(final Runnable invocation) {
+		final int priority = PriorityExecutor.priorityOf(invocation);
+		return new PrioritizedInvocation() {
+			@Override
+			public void run() {
+				try {
+					invocation.run();
+				} finally {
+					completed.incrementAndGet();
+					permits.release();
+				}
+			}
+
+			@Override
+			public int getPriority() {
+				return priority;
+			}
+		};
+	}
+
+	/**
+	 * Schedules an admitted invocation.
+	 *
+	 * @param executor
+	 *            executing the invocations
+	 * @param invocation
+	 *            admitted invocation
+	 * @return future of the invocation
+	 * @throws java.util.concurrent.RejectedExecutionException
+	 *             if the executor was shut down
+	 */
+	public Future<?> submit(ExecutorService executor, Runnable invocation) {
+		return executor.submit(wrap(invocation));
+	}
+
+	/**
+	 * @return seconds after which the client should retry, based on the time
+	 *         needed to drain the outstanding invocations at the current rate
+	 */
+	public long getRetryAfter() {
+		double rate = getDrainRate();
+		if (rate <= 0) {
+			return MAX_RETRY_AFTER;
+		}
+		long seconds = (long) Math.ceil(getOutstanding() / rate);
+		return Math.max(MIN_RETRY_AFTER, Math.min(MAX_RETRY_AFTER, seconds));
+	}
+
+	/**
+	 * @return finished invocations per second
+	 */
+	public double getDrainRate() {
+		long now = System.nanoTime();
+		long elapsed = now - lastUpdate;
+		if (elapsed >= RATE_INTERVAL) {
+			synchronized (this) {
+				elapsed = now - lastUpdate;
+				if (elapsed >= RATE_INTERVAL) {
+					long count = completed.get();
+					double rate = (count - lastCompleted) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+					drainRate = drainRate == 0 ? rate : 0.5 * drainRate + 0.5 * rate;
+					lastCompleted = count;
+					lastUpdate = now;
+				}
+			}
+		}
+		return drainRate;
+	}
+
+	/**
+	 * @return maximum number of outstanding invocations
+	 */
+	public int getCapacity() {
+		return poolSize + queueSize;
+	}
+
+	/**
+	 * @return number of running and queued invocations
+	 */
+	public int getOutstanding() {
+		return getCapacity() - permits.availablePermits();
+	}
+
+	/**
+	 * @return number of finished invocations
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * @return number of rejected requests
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+}
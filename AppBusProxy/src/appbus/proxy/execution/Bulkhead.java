@@ -0,0 +1,165 @@
+package appbus.proxy.execution;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import appbus.proxy.config.ApplicationInterfaceInformation;
+import appbus.proxy.config.ApplicationInterfacesProperties;
+
+/**
+ *
+ * Partition of the executor for one application class. The invocations of the
+ * class run in a thread pool of their own with <tt>maxConcurrency</tt>
+ * threads, up to <tt>maxQueued</tt> further invocations wait in its queue.
+ * Thereby a slow class can't occupy the threads of the shared executor and
+ * starve the other classes, and it doesn't wait behind their backlog either.
+ * The threads of the bulkheads are in addition to the shared executor.
+ *
+ * Classes get a bulkhead if <tt>maxConcurrency</tt> is declared in the
+ * <tt>ApplicationInterfacesProperties</tt>. All other classes share the
+ * {@link AdmissionControl} of the executor.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class Bulkhead extends AdmissionControl {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private static final ConcurrentHashMap<String, Bulkhead> bulkheads = new ConcurrentHashMap<String, Bulkhead>();
+
+	// Placeholder for classes without a bulkhead
+	private static final Bulkhead NONE = new Bulkhead("", 1, 0);
+
+	private static volatile long agingMillis = 1000;
+
+	private final String name;
+	private final int maxConcurrency;
+	private final PriorityExecutor executor;
+
+	/**
+	 * @param name
+	 *            of the partition, the class name
+	 * @param maxConcurrency
+	 *            number of invocations running at the same time
+	 * @param maxQueued
+	 *            number of invocations waiting
+	 */
+	public Bulkhead(String name, int maxConcurrency, int maxQueued) {
+		super(maxConcurrency, maxQueued);
+		this.name = name;
+		this.maxConcurrency = maxConcurrency;
+		this.executor = new PriorityExecutor(maxConcurrency, agingMillis);
+	}
+
+	/**
+	 * @param agingMillis
+	 *            aging interval of the thread pools of bulkheads created
+	 *            afterwards, like the one of the shared executor
+	 */
+	public static void configure(long agingMillis) {
+		Bulkhead.agingMillis = agingMillis;
+	}
+
+	/**
+	 * @param className
+	 *            application class
+	 * @return the bulkhead of the specified class. <tt>null</tt> if no
+	 *         <tt>maxConcurrency</tt> was declared for the class.
+	 */
+	public static Bulkhead forClass(String className) {
+
+		Bulkhead bulkhead = bulkheads.get(className);
+		if (bulkhead == null) {
+			ApplicationInterfaceInformation information = ApplicationInterfacesProperties.get(className);
+
+			if (information.getMaxConcurrency() > 0) {
+				bulkhead = new Bulkhead(className, information.getMaxConcurrency(),
+						Math.max(0, information.getMaxQueued()));
+				System.out.println(PROXY + "Bulkhead of " + className + ": " + information.getMaxConcurrency()
+						+ " concurrent, " + information.getMaxQueued() + " queued.");
+			} else {
+				bulkhead = NONE;
+			}
+
+			Bulkhead existing = bulkheads.putIfAbsent(className, bulkhead);
+			if (existing != null) {
+				bulkhead = existing;
+			}
+		}
+		return bulkhead != NONE ? bulkhead : null;
+	}
+
+	/**
+	 * @return all bulkheads created so far
+	 */
+	public static List<Bulkhead> getAll() {
+		List<Bulkhead> list = new ArrayList<Bulkhead>();
+		for (Bulkhead bulkhead : bulkheads.values()) {
+			if (bulkhead != NONE) {
+				list.add(bulkhead);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Removes all bulkheads, e.g. after the properties were reloaded. Their
+	 * thread pools finish the invocations already submitted.
+	 */
+	public static void clear() {
+		for (Bulkhead bulkhead : bulkheads.values()) {
+			if (bulkheads.remove(bulkhead.name, bulkhead) && bulkhead != NONE) {
+				bulkhead.executor.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Schedules the invocation in the thread pool of the bulkhead instead of
+	 * the shared executor.
+	 */
+	@Override
+	public Future<?> submit(ExecutorService shared, Runnable invocation) {
+		return executor.submit(wrap(invocation));
+	}
+
+	/**
+	 * @return thread pool of the bulkhead
+	 */
+	public PriorityExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * @return name of the partition
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return maximum number of concurrent invocations
+	 */
+	public int getMaxConcurrency() {
+		return maxConcurrency;
+	}
+
+	/**
+	 * @return number of running invocations
+	 */
+	public int getRunning() {
+		return executor.getActiveCount();
+	}
+
+	/**
+	 * @return number of invocations waiting in the bulkhead
+	 */
+	public int getQueued() {
+		return executor.getQueue().size();
+	}
+}
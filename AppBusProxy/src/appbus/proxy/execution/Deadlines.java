@@ -0,0 +1,92 @@
+package appbus.proxy.execution;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import appbus.proxy.model.resources.RequestRecord;
+import appbus.proxy.model.resources.RequestRetention;
+import appbus.proxy.model.resources.RequestState;
+
+/**
+ *
+ * Enforces the deadlines of invocations. When the deadline of a request
+ * passes, a queued invocation is dropped without running and a running
+ * invocation is interrupted. The request is marked as <tt>TIMED_OUT</tt> in
+ * both cases.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class Deadlines {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private static final RequestRetention retention = new RequestRetention();
+
+	private static final ScheduledThreadPoolExecutor scheduler = createScheduler();
+
+	/**
+	 * @param record
+	 *            of the request
+	 * @param timeoutMillis
+	 *            time after which the request times out
+	 */
+	public static void schedule(final RequestRecord record, long timeoutMillis) {
+		record.setDeadline(scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (record.abort(RequestState.TIMED_OUT)) {
+					System.out.println(PROXY + "Request timed out: " + record.getId());
+					retention.finished(record.getId());
+				}
+			}
+		}, timeoutMillis, TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Aborts a queued or running request on behalf of the client.
+	 *
+	 * @param record
+	 *            of the request
+	 * @return <tt>false</tt> if the request had already finished
+	 */
+	public static boolean cancel(RequestRecord record) {
+		if (record.abort(RequestState.CANCELLED)) {
+			System.out.println(PROXY + "Request cancelled: " + record.getId());
+			retention.finished(record.getId());
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Stops the scheduler and drops the pending deadlines, so they don't keep
+	 * the requests after the proxy was stopped.
+	 */
+	public static void stop() {
+		scheduler.shutdownNow();
+	}
+
+	/**
+	 * @return number of pending deadlines
+	 */
+	public static int size() {
+		return scheduler.getQueue().size();
+	}
+
+	private static ScheduledThreadPoolExecutor createScheduler() {
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "AppBusProxy-Deadlines");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// Deadlines of finished requests are cancelled and shouldn't be kept
+		scheduler.setRemoveOnCancelPolicy(true);
+		return scheduler;
+	}
+}
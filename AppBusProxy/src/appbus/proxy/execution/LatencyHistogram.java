@@ -0,0 +1,150 @@
+package appbus.proxy.execution;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *
+ * Lock-free histogram of durations with log-linear buckets, like an HDR
+ * histogram. Durations are recorded in microseconds. Every power of two is
+ * divided into {@value #SUB_BUCKETS} buckets, so a recorded duration is off by
+ * at most 12.5%, and the bucket of a duration is found by a few bit operations.
+ * Durations above {@value #MAX_EXPONENT} powers of two (about 19 hours) are
+ * recorded in the last bucket.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class LatencyHistogram {
+
+	/**
+	 * Upper bounds in milliseconds of the cumulative buckets returned by
+	 * {@link #getBuckets()}.
+	 */
+	public static final long[] BOUNDS = { 1, 5, 10, 50, 100, 500, 1000, 5000, 10000, 60000 };
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int MAX_EXPONENT = 36;
+	private static final int LENGTH = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(LENGTH);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param millis
+	 *            duration to record
+	 */
+	public void record(long millis) {
+		recordMicros(TimeUnit.MILLISECONDS.toMicros(millis));
+	}
+
+	/**
+	 * @param nanos
+	 *            duration to record, e.g. the difference of two
+	 *            <tt>System.nanoTime()</tt>
+	 */
+	public void recordNanos(long nanos) {
+		recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	private void recordMicros(long micros) {
+		micros = Math.max(0, micros);
+		buckets.incrementAndGet(indexOf(micros));
+		count.incrementAndGet();
+		sum.addAndGet(micros);
+
+		long current;
+		while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {
+		}
+	}
+
+	private static int indexOf(long micros) {
+		if (micros < SUB_BUCKETS) {
+			return (int) micros;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		if (exponent > MAX_EXPONENT) {
+			return LENGTH - 1;
+		}
+		int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return largest duration in microseconds recorded in the bucket
+	 */
+	private static long upperBoundOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+		long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BITS);
+		return lower + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+	/**
+	 * @return number of recorded durations per bucket of {@link #BOUNDS}, not
+	 *         cumulative. The last entry counts the durations above all
+	 *         bounds.
+	 */
+	public long[] getBuckets() {
+		long[] values = new long[BOUNDS.length + 1];
+		int bound = 0;
+		for (int i = 0; i < LENGTH; i++) {
+			long upper = upperBoundOf(i);
+			while (bound < BOUNDS.length && upper > TimeUnit.MILLISECONDS.toMicros(BOUNDS[bound])) {
+				bound++;
+			}
+			values[bound] += buckets.get(i);
+		}
+		return values;
+	}
+
+	/**
+	 * @param percentile
+	 *            between <tt>0</tt> and <tt>100</tt>
+	 * @return duration in milliseconds below which the specified percentage
+	 *         of the recorded durations lie. <tt>0</tt> if nothing was
+	 *         recorded.
+	 */
+	public double getPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < LENGTH; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), max.get()) / 1000.0;
+			}
+		}
+		return max.get() / 1000.0;
+	}
+
+	/**
+	 * @return number of recorded durations
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return sum of all recorded durations in milliseconds
+	 */
+	public double getSum() {
+		return sum.get() / 1000.0;
+	}
+
+	/**
+	 * @return longest recorded duration in milliseconds
+	 */
+	public double getMax() {
+		return max.get() / 1000.0;
+	}
+}
@@ -0,0 +1,117 @@
+package appbus.proxy.execution;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Time invocations of an operation waited for a thread and spent executing,
+ * per class and operation. The queue wait includes the time in a
+ * {@link Bulkhead}, the execution time includes the serialization of the
+ * result.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class OperationMetrics {
+
+	private static final ConcurrentHashMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+
+	private final String className;
+	private final String operation;
+
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	private final LatencyHistogram execution = new LatencyHistogram();
+	private final AtomicLong failed = new AtomicLong();
+
+	private OperationMetrics(String className, String operation) {
+		this.className = className;
+		this.operation = operation;
+	}
+
+	/**
+	 * @param className
+	 *            application class
+	 * @param operation
+	 *            method of the class
+	 * @return metrics of the operation, created on first use
+	 */
+	public static OperationMetrics get(String className, String operation) {
+		String key = className + "#" + operation;
+		OperationMetrics metrics = operations.get(key);
+		if (metrics == null) {
+			OperationMetrics newMetrics = new OperationMetrics(className, operation);
+			metrics = operations.putIfAbsent(key, newMetrics);
+			if (metrics == null) {
+				metrics = newMetrics;
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return metrics of all invoked operations, ordered by class and
+	 *         operation
+	 */
+	public static Map<String, OperationMetrics> getAll() {
+		return new TreeMap<String, OperationMetrics>(operations);
+	}
+
+	/**
+	 * @param nanos
+	 *            time between the submission and the start of an invocation
+	 */
+	public void queued(long nanos) {
+		queueWait.recordNanos(nanos);
+	}
+
+	/**
+	 * @param nanos
+	 *            time the invocation was running
+	 * @param succeeded
+	 *            <tt>false</tt> if the invocation failed
+	 */
+	public void executed(long nanos, boolean succeeded) {
+		execution.recordNanos(nanos);
+		if (!succeeded) {
+			failed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return application class
+	 */
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * @return method of the class
+	 */
+	public String getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return histogram of the time invocations waited for a thread
+	 */
+	public LatencyHistogram getQueueWait() {
+		return queueWait;
+	}
+
+	/**
+	 * @return histogram of the time invocations were running
+	 */
+	public LatencyHistogram getExecution() {
+		return execution;
+	}
+
+	/**
+	 * @return number of failed invocations
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+}
@@ -0,0 +1,22 @@
+package appbus.proxy.execution;
+
+/**
+ *
+ * Invocation that is scheduled by its priority by the
+ * {@link PriorityExecutor}.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public interface PrioritizedInvocation extends Runnable {
+
+	/**
+	 * Default priority of invocations.
+	 */
+	int DEFAULT_PRIORITY = 0;
+
+	/**
+	 * @return priority of the invocation, higher values are executed first
+	 */
+	int getPriority();
+}
@@ -0,0 +1,148 @@
+package appbus.proxy.execution;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Thread pool that executes queued invocations by priority instead of FIFO.
+ * In order that invocations with a low priority are not starved, every
+ * invocation ages: its priority effectively rises by one per aging interval it
+ * waits. This is done by ordering the queue by the enqueue time reduced by
+ * <tt>priority * agingInterval</tt>, which doesn't change while the invocation
+ * is queued. An invocation therefore never waits longer behind a later
+ * invocation than the difference of their priorities times the aging interval.
+ *
+ * The time every invocation waited in the queue is recorded per priority.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class PriorityExecutor extends ThreadPoolExecutor {
+
+	/**
+	 * Priorities are limited to
+	 * <tt>[-{@value #MAX_PRIORITY}, {@value #MAX_PRIORITY}]</tt>.
+	 */
+	public static final int MAX_PRIORITY = 100;
+
+	private final long agingNanos;
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final ConcurrentHashMap<Integer, LatencyHistogram> queueWaits = new ConcurrentHashMap<Integer, LatencyHistogram>();
+
+	/**
+	 * @param poolSize
+	 *            number of threads
+	 * @param agingMillis
+	 *            time after which a waiting invocation is treated like an
+	 *            invocation with the next higher priority
+	 */
+	public PriorityExecutor(int poolSize, long agingMillis) {
+		super(poolSize, poolSize, 10, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+		this.agingNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, agingMillis));
+		allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @param invocation
+	 * @return priority of the invocation, {@link PrioritizedInvocation#DEFAULT_PRIORITY}
+	 *         if it has none
+	 */
+	public static int priorityOf(Runnable invocation) {
+		if (invocation instanceof PrioritizedInvocation) {
+			int priority = ((PrioritizedInvocation) invocation).getPriority();
+			return Math.max(-MAX_PRIORITY, Math.min(MAX_PRIORITY, priority));
+		}
+		return PrioritizedInvocation.DEFAULT_PRIORITY;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		super.execute(command instanceof QueuedInvocation ? command : new QueuedInvocation(command));
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+		return new PrioritizedFuture<T>(runnable, value, priorityOf(runnable));
+	}
+
+	/**
+	 * @return histogram of the time spent in the queue per priority
+	 */
+	public Map<Integer, LatencyHistogram> getQueueWaits() {
+		return new TreeMap<Integer, LatencyHistogram>(queueWaits);
+	}
+
+	private LatencyHistogram queueWait(int priority) {
+		LatencyHistogram histogram = queueWaits.get(priority);
+		if (histogram == null) {
+			LatencyHistogram newHistogram = new LatencyHistogram();
+			histogram = queueWaits.putIfAbsent(priority, newHistogram);
+			if (histogram == null) {
+				histogram = newHistogram;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Future of an invocation that keeps the priority of the invocation.
+	 */
+	static class PrioritizedFuture<T> extends FutureTask<T> implements PrioritizedInvocation {
+
+		private final int priority;
+
+		PrioritizedFuture(Runnable runnable, T value, int priority) {
+			super(runnable, value);
+			this.priority = priority;
+		}
+
+		@Override
+		public int getPriority() {
+			return priority;
+		}
+	}
+
+	/**
+	 * Element of the queue, ordered by the aged enqueue time.
+	 */
+	private class QueuedInvocation implements Runnable, Comparable<QueuedInvocation> {
+
+		private final Runnable invocation;
+		private final int priority;
+		private final long enqueuedAt = System.nanoTime();
+		private final long key;
+		private final long seq = sequence.getAndIncrement();
+
+		QueuedInvocation(Runnable invocation) {
+			this.invocation = invocation;
+			this.priority = priorityOf(invocation);
+			this.key = enqueuedAt - priority * agingNanos;
+		}
+
+		@Override
+		public void run() {
+			queueWait(priority).recordNanos(System.nanoTime() - enqueuedAt);
+			invocation.run();
+		}
+
+		@Override
+		public int compareTo(QueuedInvocation other) {
+			// nanoTime values must be compared by their difference
+			long diff = key - other.key;
+			if (diff != 0) {
+				return diff < 0 ? -1 : 1;
+			}
+			return seq < other.seq ? -1 : (seq == other.seq ? 0 : 1);
+		}
+	}
+}
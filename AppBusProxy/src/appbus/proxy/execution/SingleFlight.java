@@ -0,0 +1,102 @@
+package appbus.proxy.execution;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import appbus.proxy.model.resources.RequestRecord;
+import appbus.proxy.model.resources.RequestRetention;
+
+/**
+ *
+ * Coalesces identical invocations of safe operations. While an invocation is
+ * in flight, further requests with the same class, operation and parameters
+ * don't invoke the method again, but wait for the running invocation and share
+ * its result. If the shared invocation doesn't succeed, e.g. because it timed
+ * out or was cancelled by its client, the waiting requests fail. The result
+ * of the shared invocation is kept until every waiting request adopted it,
+ * even if its own request was fetched and removed before.
+ *
+ * Operations are declared as safe by <tt>safeOperations</tt> in the
+ * <tt>ApplicationInterfacesProperties</tt>.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class SingleFlight {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private static final RequestRetention retention = new RequestRetention();
+
+	private static final ConcurrentHashMap<String, RequestRecord> inFlight = new ConcurrentHashMap<String, RequestRecord>();
+
+	private static final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Lets the request share an invocation in flight.
+	 *
+	 * @param key
+	 *            identifying the invocation
+	 * @param follower
+	 *            queued request that should not be executed itself
+	 * @return <tt>false</tt> if there is no identical invocation in flight and
+	 *         the request has to be executed
+	 */
+	public static boolean join(String key, final RequestRecord follower) {
+
+		final RequestRecord leader = inFlight.get(key);
+		// The leader's result is kept until the follower adopted it
+		if (leader == null || leader.getState().isFinished() || !leader.follow()) {
+			return false;
+		}
+
+		System.out.println(PROXY + "Request " + follower.getId() + " shares the invocation of request "
+				+ leader.getId() + ".");
+		coalesced.incrementAndGet();
+
+		leader.addFinishedListener(new Runnable() {
+			@Override
+			public void run() {
+				if (follower.adopt(leader)) {
+					retention.finished(follower.getId());
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Registers a scheduled invocation, so identical requests can share it
+	 * until it finished.
+	 *
+	 * @param key
+	 *            identifying the invocation
+	 * @param leader
+	 *            request executing the invocation
+	 */
+	public static void lead(final String key, final RequestRecord leader) {
+		if (inFlight.putIfAbsent(key, leader) == null) {
+			leader.addFinishedListener(new Runnable() {
+				@Override
+				public void run() {
+					inFlight.remove(key, leader);
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return number of invocations in flight that can be shared
+	 */
+	public static int size() {
+		return inFlight.size();
+	}
+
+	/**
+	 * @return number of requests that shared an invocation
+	 */
+	public static long getCoalesced() {
+		return coalesced.get();
+	}
+}
@@ -0,0 +1,140 @@
+package appbus.proxy.execution;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Executor mode that runs every invocation on its own virtual thread, so
+ * blocking application operations don't occupy a platform thread. Virtual
+ * threads are only available on Java 21 and newer and are therefore looked up
+ * at runtime. On older runtimes an unbounded pool of platform threads is used
+ * instead, the number of concurrent invocations is limited by the
+ * {@link AdmissionControl} in both cases.
+ *
+ * Virtual threads that block while holding a monitor pin their carrier thread.
+ * If the runtime supports JFR event streaming, these
+ * <tt>jdk.VirtualThreadPinned</tt> events are counted.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class VirtualThreads {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+	private static final Method newVirtualThreadPerTaskExecutor = findFactory();
+
+	private static final AtomicLong pinnedEvents = new AtomicLong();
+
+	private static Object recordingStream;
+
+	/**
+	 * @return <tt>true</tt> if the runtime provides virtual threads. Otherwise
+	 *         <tt>false</tt>
+	 */
+	public static boolean isAvailable() {
+		return newVirtualThreadPerTaskExecutor != null;
+	}
+
+	/**
+	 * @return executor starting a virtual thread per invocation. An unbounded
+	 *         pool of platform threads if virtual threads are not available.
+	 */
+	public static ExecutorService newExecutor() {
+		if (newVirtualThreadPerTaskExecutor != null) {
+			try {
+				return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				e.printStackTrace();
+			}
+		}
+		System.out.println(PROXY + "Virtual threads not available. Using platform threads.");
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+	}
+
+	/**
+	 * Starts counting pinned carrier threads, if JFR event streaming is
+	 * available.
+	 */
+	public static synchronized void startPinnedMonitor() {
+
+		if (recordingStream != null || !isAvailable()) {
+			return;
+		}
+
+		try {
+			Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+			Class<?> consumerClass = Class.forName("java.util.function.Consumer");
+
+			Object consumer = Proxy.newProxyInstance(VirtualThreads.class.getClassLoader(),
+					new Class<?>[] { consumerClass }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							if (method.getName().equals("accept")) {
+								pinnedEvents.incrementAndGet();
+								return null;
+							}
+							// equals, hashCode and toString of the proxy
+							if (method.getName().equals("equals")) {
+								return proxy == args[0];
+							}
+							if (method.getName().equals("hashCode")) {
+								return System.identityHashCode(proxy);
+							}
+							return "PinnedEventCounter";
+						}
+					});
+
+			Object stream = streamClass.getConstructor().newInstance();
+			streamClass.getMethod("enable", String.class).invoke(stream, PINNED_EVENT);
+			streamClass.getMethod("onEvent", String.class, consumerClass).invoke(stream, PINNED_EVENT, consumer);
+			streamClass.getMethod("startAsync").invoke(stream);
+
+			recordingStream = stream;
+			System.out.println(PROXY + "Counting " + PINNED_EVENT + " events.");
+
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			System.out.println(PROXY + "JFR event streaming not available. Pinned threads are not counted.");
+		}
+	}
+
+	/**
+	 * Stops counting pinned carrier threads.
+	 */
+	public static synchronized void stopPinnedMonitor() {
+		if (recordingStream != null) {
+			try {
+				recordingStream.getClass().getMethod("close").invoke(recordingStream);
+			} catch (ReflectiveOperationException e) {
+				e.printStackTrace();
+			}
+			recordingStream = null;
+		}
+	}
+
+	/**
+	 * @return number of times a virtual thread pinned its carrier thread
+	 */
+	public static long getPinnedEvents() {
+		return pinnedEvents.get();
+	}
+
+	private static Method findFactory() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package appbus.proxy.invocation;
+
+/**
+ *
+ * Converts a transfered parameter to the parameter type of the invoked
+ * <tt>method</tt>. Converters are selected once by the
+ * {@link ConverterRegistry} when the method is resolved.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public interface Converter {
+
+	/**
+	 * @param value
+	 *            transfered parameter, never <tt>null</tt>
+	 * @return the converted parameter
+	 */
+	Object convert(Object value);
+}
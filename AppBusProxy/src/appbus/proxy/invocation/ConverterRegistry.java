@@ -0,0 +1,562 @@
+package appbus.proxy.invocation;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * Registry of the {@link Converter}s used to cast the transfered parameters.
+ * The transfered parameters are the types produced by the JSON parser
+ * (<tt>String</tt>, <tt>Long</tt>, <tt>Double</tt>, <tt>Boolean</tt>,
+ * <tt>List</tt> and <tt>Map</tt>). For every parameter of a resolved method
+ * a converter is selected once, so no type comparisons are needed while
+ * invoking.
+ *
+ * Supported are all primitive types and their wrappers, <tt>BigDecimal</tt>,
+ * <tt>BigInteger</tt>, enums, arrays, typed <tt>List</tt>s and objects with a
+ * public no-arg constructor and setters or public fields. Further conversions
+ * can be added by {@link #register(Class, Class, Converter)}.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class ConverterRegistry {
+
+	/**
+	 * Returned if the parameter can be passed without conversion.
+	 */
+	public static final Converter IDENTITY = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return value;
+		}
+	};
+
+	private static final ConcurrentHashMap<List<Class<?>>, Converter> registered = new ConcurrentHashMap<List<Class<?>>, Converter>();
+
+	private static final Map<Class<?>, Class<?>> wrappers = new HashMap<Class<?>, Class<?>>();
+
+	static {
+		wrappers.put(boolean.class, Boolean.class);
+		wrappers.put(byte.class, Byte.class);
+		wrappers.put(char.class, Character.class);
+		wrappers.put(short.class, Short.class);
+		wrappers.put(int.class, Integer.class);
+		wrappers.put(long.class, Long.class);
+		wrappers.put(float.class, Float.class);
+		wrappers.put(double.class, Double.class);
+	}
+
+	/**
+	 * Registers a converter that takes precedence over the built-in
+	 * conversions.
+	 *
+	 * @param source
+	 *            type of the transfered parameter
+	 * @param target
+	 *            parameter type of the method
+	 * @param converter
+	 */
+	public static void register(Class<?> source, Class<?> target, Converter converter) {
+		registered.put(key(source, wrap(target)), converter);
+	}
+
+	/**
+	 * Selects the converter for the specified types.
+	 *
+	 * @param source
+	 *            type of the transfered parameter
+	 * @param target
+	 *            (generic) parameter type of the method
+	 * @return {@link #IDENTITY} if no conversion is needed. <tt>null</tt> if
+	 *         there is no conversion between the types.
+	 */
+	public static Converter lookup(Class<?> source, Type target) {
+
+		// Type variables are erased anyway
+		if (rawType(target) == null) {
+			return IDENTITY;
+		}
+		Class<?> targetClass = wrap(rawType(target));
+
+		Converter converter = registered.get(key(source, targetClass));
+		if (converter != null) {
+			return converter;
+		}
+
+		// Typed collections need converted elements, anything else that fits
+		// is passed as it is.
+		if (List.class.isAssignableFrom(source) && targetClass.isAssignableFrom(ArrayList.class)
+				&& target instanceof ParameterizedType) {
+			Type elementType = ((ParameterizedType) target).getActualTypeArguments()[0];
+			if (elementType != Object.class && rawType(elementType) != null) {
+				return new ListConverter(elementType);
+			}
+		}
+
+		if (targetClass.isAssignableFrom(source)) {
+			return IDENTITY;
+		}
+
+		if (source == String.class) {
+			return fromString(targetClass);
+		}
+
+		if (Number.class.isAssignableFrom(source)) {
+			return fromNumber(source, targetClass);
+		}
+
+		if (source == Boolean.class && targetClass == String.class) {
+			return TO_STRING;
+		}
+
+		if (List.class.isAssignableFrom(source) && targetClass.isArray()) {
+			return new ArrayConverter(targetClass.getComponentType());
+		}
+
+		if (Map.class.isAssignableFrom(source)) {
+			return BeanConverter.create(targetClass);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Converts a single value. Used for elements of arrays, lists and objects
+	 * whose types are only known while invoking.
+	 *
+	 * @param value
+	 * @param target
+	 * @param cache
+	 *            converters already selected for the target type
+	 * @return the converted value
+	 */
+	static Object convert(Object value, Type target, ConcurrentHashMap<Class<?>, Converter> cache) {
+
+		if (value == null) {
+			return null;
+		}
+
+		Class<?> source = value.getClass();
+		Converter converter = cache.get(source);
+		if (converter == null) {
+			converter = lookup(source, target);
+			if (converter == null) {
+				throw new IllegalArgumentException("Can't convert " + source.getName() + " to " + target);
+			}
+			cache.put(source, converter);
+		}
+		return converter.convert(value);
+	}
+
+	private static Converter fromString(Class<?> target) {
+
+		if (target == Integer.class) {
+			return STRING_TO_INT;
+		} else if (target == Long.class) {
+			return STRING_TO_LONG;
+		} else if (target == Short.class) {
+			return STRING_TO_SHORT;
+		} else if (target == Byte.class) {
+			return STRING_TO_BYTE;
+		} else if (target == Float.class) {
+			return STRING_TO_FLOAT;
+		} else if (target == Double.class) {
+			return STRING_TO_DOUBLE;
+		} else if (target == Boolean.class) {
+			return STRING_TO_BOOLEAN;
+		} else if (target == Character.class) {
+			return STRING_TO_CHAR;
+		} else if (target == BigDecimal.class) {
+			return STRING_TO_BIG_DECIMAL;
+		} else if (target == BigInteger.class) {
+			return STRING_TO_BIG_INTEGER;
+		} else if (target.isEnum()) {
+			return new EnumConverter(target);
+		}
+		return null;
+	}
+
+	private static Converter fromNumber(Class<?> source, Class<?> target) {
+
+		if (target == Integer.class) {
+			return NUMBER_TO_INT;
+		} else if (target == Long.class) {
+			return NUMBER_TO_LONG;
+		} else if (target == Short.class) {
+			return NUMBER_TO_SHORT;
+		} else if (target == Byte.class) {
+			return NUMBER_TO_BYTE;
+		} else if (target == Float.class) {
+			return NUMBER_TO_FLOAT;
+		} else if (target == Double.class) {
+			return NUMBER_TO_DOUBLE;
+		} else if (target == BigDecimal.class) {
+			return isIntegral(source) ? INTEGRAL_TO_BIG_DECIMAL : NUMBER_TO_BIG_DECIMAL;
+		} else if (target == BigInteger.class) {
+			return isIntegral(source) ? INTEGRAL_TO_BIG_INTEGER : NUMBER_TO_BIG_INTEGER;
+		} else if (target == String.class) {
+			return TO_STRING;
+		}
+		return null;
+	}
+
+	private static boolean isIntegral(Class<?> source) {
+		return source == Long.class || source == Integer.class || source == Short.class || source == Byte.class;
+	}
+
+	private static Class<?> wrap(Class<?> type) {
+		if (type != null && type.isPrimitive()) {
+			return wrappers.get(type);
+		}
+		return type;
+	}
+
+	private static Class<?> rawType(Type type) {
+		if (type instanceof Class) {
+			return (Class<?>) type;
+		}
+		if (type instanceof ParameterizedType) {
+			return (Class<?>) ((ParameterizedType) type).getRawType();
+		}
+		return null;
+	}
+
+	private static List<Class<?>> key(Class<?> source, Class<?> target) {
+		List<Class<?>> key = new ArrayList<Class<?>>(2);
+		key.add(source);
+		key.add(target);
+		return key;
+	}
+
+	private static final Converter STRING_TO_INT = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Integer.valueOf((String) value);
+		}
+	};
+
+	private static final Converter STRING_TO_LONG = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Long.valueOf((String) value);
+		}
+	};
+
+	private static final Converter STRING_TO_SHORT = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Short.valueOf((String) value);
+		}
+	};
+
+	private static final Converter STRING_TO_BYTE = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Byte.valueOf((String) value);
+		}
+	};
+
+	private static final Converter STRING_TO_FLOAT = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Float.valueOf((String) value);
+		}
+	};
+
+	private static final Converter STRING_TO_DOUBLE = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Double.valueOf((String) value);
+		}
+	};
+
+	private static final Converter STRING_TO_BOOLEAN = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Boolean.valueOf((String) value);
+		}
+	};
+
+	private static final Converter STRING_TO_CHAR = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			String s = (String) value;
+			if (s.length() != 1) {
+				throw new IllegalArgumentException("Can't convert \"" + s + "\" to char");
+			}
+			return Character.valueOf(s.charAt(0));
+		}
+	};
+
+	private static final Converter STRING_TO_BIG_DECIMAL = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return new BigDecimal((String) value);
+		}
+	};
+
+	private static final Converter STRING_TO_BIG_INTEGER = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return new BigInteger((String) value);
+		}
+	};
+
+	private static final Converter NUMBER_TO_INT = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Integer.valueOf(((Number) value).intValue());
+		}
+	};
+
+	private static final Converter NUMBER_TO_LONG = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Long.valueOf(((Number) value).longValue());
+		}
+	};
+
+	private static final Converter NUMBER_TO_SHORT = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Short.valueOf(((Number) value).shortValue());
+		}
+	};
+
+	private static final Converter NUMBER_TO_BYTE = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Byte.valueOf(((Number) value).byteValue());
+		}
+	};
+
+	private static final Converter NUMBER_TO_FLOAT = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Float.valueOf(((Number) value).floatValue());
+		}
+	};
+
+	private static final Converter NUMBER_TO_DOUBLE = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return Double.valueOf(((Number) value).doubleValue());
+		}
+	};
+
+	private static final Converter INTEGRAL_TO_BIG_DECIMAL = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return BigDecimal.valueOf(((Number) value).longValue());
+		}
+	};
+
+	private static final Converter NUMBER_TO_BIG_DECIMAL = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return new BigDecimal(value.toString());
+		}
+	};
+
+	private static final Converter INTEGRAL_TO_BIG_INTEGER = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return BigInteger.valueOf(((Number) value).longValue());
+		}
+	};
+
+	private static final Converter NUMBER_TO_BIG_INTEGER = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return new BigDecimal(value.toString()).toBigIntegerExact();
+		}
+	};
+
+	private static final Converter TO_STRING = new Converter() {
+		@Override
+		public Object convert(Object value) {
+			return value.toString();
+		}
+	};
+
+	/**
+	 * String to enum constant. The constants are looked up once.
+	 */
+	private static class EnumConverter implements Converter {
+
+		private final Map<String, Object> constants = new HashMap<String, Object>();
+
+		EnumConverter(Class<?> target) {
+			for (Object constant : target.getEnumConstants()) {
+				constants.put(((Enum<?>) constant).name(), constant);
+			}
+		}
+
+		@Override
+		public Object convert(Object value) {
+			Object constant = constants.get(value);
+			if (constant == null) {
+				throw new IllegalArgumentException("No enum constant " + value);
+			}
+			return constant;
+		}
+	}
+
+	/**
+	 * JSON array to a list with converted elements.
+	 */
+	private static class ListConverter implements Converter {
+
+		private final Type elementType;
+		private final ConcurrentHashMap<Class<?>, Converter> cache = new ConcurrentHashMap<Class<?>, Converter>();
+
+		ListConverter(Type elementType) {
+			this.elementType = elementType;
+		}
+
+		@Override
+		public Object convert(Object value) {
+			Collection<?> source = (Collection<?>) value;
+			List<Object> list = new ArrayList<Object>(source.size());
+			for (Object element : source) {
+				list.add(ConverterRegistry.convert(element, elementType, cache));
+			}
+			return list;
+		}
+	}
+
+	/**
+	 * JSON array to an array of the component type.
+	 */
+	private static class ArrayConverter implements Converter {
+
+		private final Class<?> componentType;
+		private final ConcurrentHashMap<Class<?>, Converter> cache = new ConcurrentHashMap<Class<?>, Converter>();
+
+		private final MethodHandle setter;
+
+		ArrayConverter(Class<?> componentType) {
+			this.componentType = componentType;
+			this.setter = MethodHandles.arrayElementSetter(Array.newInstance(componentType, 0).getClass())
+					.asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+		}
+
+		@Override
+		public Object convert(Object value) {
+			List<?> source = (List<?>) value;
+			int size = source.size();
+			Object array = Array.newInstance(componentType, size);
+
+			try {
+				for (int i = 0; i < size; i++) {
+					Object element = ConverterRegistry.convert(source.get(i), componentType, cache);
+					setter.invokeExact(array, i, element);
+				}
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new IllegalArgumentException("Can't create array of " + componentType, e);
+			}
+			return array;
+		}
+	}
+
+	/**
+	 * JSON object to a POJO. Properties are set via public setters or public
+	 * fields that are resolved once.
+	 */
+	private static class BeanConverter implements Converter {
+
+		private final Class<?> target;
+		private final MethodHandle constructor;
+		private final Map<String, MethodHandle> setters = new HashMap<String, MethodHandle>();
+		private final Map<String, Type> types = new HashMap<String, Type>();
+		private final Map<String, ConcurrentHashMap<Class<?>, Converter>> caches = new HashMap<String, ConcurrentHashMap<Class<?>, Converter>>();
+
+		private BeanConverter(Class<?> target, MethodHandle constructor) {
+			this.target = target;
+			this.constructor = constructor.asType(MethodType.methodType(Object.class));
+		}
+
+		static Converter create(Class<?> target) {
+
+			// JDK types like String are no beans even if they have a no-arg
+			// constructor
+			if (target.isInterface() || target.isArray() || target.isPrimitive() || target.getName().startsWith("java.")
+					|| Modifier.isAbstract(target.getModifiers()) || !Modifier.isPublic(target.getModifiers())) {
+				return null;
+			}
+
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			BeanConverter converter;
+			try {
+				converter = new BeanConverter(target, lookup.findConstructor(target, MethodType.methodType(void.class)));
+
+				for (Field field : target.getFields()) {
+					if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isFinal(field.getModifiers())) {
+						converter.add(field.getName(), lookup.unreflectSetter(field), field.getGenericType());
+					}
+				}
+
+				for (Method method : target.getMethods()) {
+					String name = method.getName();
+					if (name.length() > 3 && name.startsWith("set") && method.getParameterTypes().length == 1
+							&& !Modifier.isStatic(method.getModifiers())) {
+						String property = Character.toLowerCase(name.charAt(3)) + name.substring(4);
+						converter.add(property, lookup.unreflect(method), method.getGenericParameterTypes()[0]);
+					}
+				}
+
+			} catch (NoSuchMethodException | IllegalAccessException e) {
+				return null;
+			}
+			return converter;
+		}
+
+		private void add(String property, MethodHandle setter, Type type) {
+			setters.put(property, setter.asType(MethodType.methodType(void.class, Object.class, Object.class)));
+			types.put(property, type);
+			caches.put(property, new ConcurrentHashMap<Class<?>, Converter>());
+		}
+
+		@Override
+		public Object convert(Object value) {
+			try {
+				Object bean = (Object) constructor.invokeExact();
+
+				for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+					Object property = entry.getKey();
+					MethodHandle setter = setters.get(property);
+					if (setter != null) {
+						Object converted = ConverterRegistry.convert(entry.getValue(), types.get(property),
+								caches.get(property));
+						setter.invokeExact(bean, converted);
+					}
+				}
+				return bean;
+
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				throw new IllegalArgumentException("Can't create " + target.getName(), e);
+			}
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package appbus.proxy.invocation;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+import appbus.proxy.config.ApplicationInterfaceInformation;
+import appbus.proxy.config.ApplicationInterfacesProperties;
+
+/**
+ *
+ * Provides the instances of an application class on which non-static methods
+ * are invoked. Every instance obtained by {@link #acquire()} has to be handed
+ * back by {@link #release(Object)} after the invocation. There is one provider
+ * per class, its behavior is defined by the declared {@link InstanceScope}.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public abstract class InstanceProvider {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private static final ConcurrentHashMap<Class<?>, InstanceProvider> providers = new ConcurrentHashMap<Class<?>, InstanceProvider>();
+
+	protected final Class<?> cls;
+
+	private InstanceProvider(Class<?> cls) {
+		this.cls = cls;
+	}
+
+	/**
+	 * @param cls
+	 *            application class
+	 * @return the provider of the specified class. Created according to the
+	 *         <tt>ApplicationInterfacesProperties</tt> on first use.
+	 */
+	public static InstanceProvider forClass(Class<?> cls) {
+
+		InstanceProvider provider = providers.get(cls);
+		if (provider != null) {
+			return provider;
+		}
+
+		ApplicationInterfaceInformation information = ApplicationInterfacesProperties.get(cls.getName());
+
+		switch (information.getInstanceScope()) {
+		case SINGLETON:
+			provider = new SingletonProvider(cls);
+			break;
+		case THREAD:
+			provider = new ThreadProvider(cls);
+			break;
+		case POOL:
+			provider = new PoolProvider(cls, information.getPoolSize());
+			break;
+		default:
+			provider = new CallProvider(cls);
+			break;
+		}
+
+		System.out.println(PROXY + "Instance scope of " + cls.getName() + ": " + information.getInstanceScope());
+
+		InstanceProvider existing = providers.putIfAbsent(cls, provider);
+		return existing != null ? existing : provider;
+	}
+
+	/**
+	 * Removes all providers and thereby all shared instances.
+	 */
+	public static void clear() {
+		providers.clear();
+	}
+
+	/**
+	 * @return instance on which the method can be invoked
+	 * @throws InstantiationException
+	 * @throws IllegalAccessException
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a pooled instance
+	 */
+	public abstract Object acquire() throws InstantiationException, IllegalAccessException, InterruptedException;
+
+	/**
+	 * Hands back an instance obtained by {@link #acquire()}.
+	 *
+	 * @param instance
+	 */
+	public abstract void release(Object instance);
+
+	/**
+	 * @return scope of the provided instances
+	 */
+	public abstract InstanceScope getScope();
+
+	/**
+	 * New instance for every invocation.
+	 */
+	private static class CallProvider extends InstanceProvider {
+
+		CallProvider(Class<?> cls) {
+			super(cls);
+		}
+
+		@Override
+		public Object acquire() throws InstantiationException, IllegalAccessException {
+			return cls.newInstance();
+		}
+
+		@Override
+		public void release(Object instance) {
+		}
+
+		@Override
+		public InstanceScope getScope() {
+			return InstanceScope.CALL;
+		}
+	}
+
+	/**
+	 * One lazily created instance shared by all invocations.
+	 */
+	private static class SingletonProvider extends InstanceProvider {
+
+		private volatile Object instance;
+
+		SingletonProvider(Class<?> cls) {
+			super(cls);
+		}
+
+		@Override
+		public Object acquire() throws InstantiationException, IllegalAccessException {
+			Object result = instance;
+			if (result == null) {
+				synchronized (this) {
+					result = instance;
+					if (result == null) {
+						instance = result = cls.newInstance();
+					}
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public void release(Object instance) {
+		}
+
+		@Override
+		public InstanceScope getScope() {
+			return InstanceScope.SINGLETON;
+		}
+	}
+
+	/**
+	 * One lazily created instance per worker thread.
+	 */
+	private static class ThreadProvider extends InstanceProvider {
+
+		private final ThreadLocal<Object> instances = new ThreadLocal<Object>();
+
+		ThreadProvider(Class<?> cls) {
+			super(cls);
+		}
+
+		@Override
+		public Object acquire() throws InstantiationException, IllegalAccessException {
+			Object instance = instances.get();
+			if (instance == null) {
+				instance = cls.newInstance();
+				instances.set(instance);
+			}
+			return instance;
+		}
+
+		@Override
+		public void release(Object instance) {
+		}
+
+		@Override
+		public InstanceScope getScope() {
+			return InstanceScope.THREAD;
+		}
+	}
+
+	/**
+	 * Up to <tt>poolSize</tt> lazily created instances. Invocations wait if all
+	 * instances are in use.
+	 */
+	private static class PoolProvider extends InstanceProvider {
+
+		private final Semaphore permits;
+		private final ArrayBlockingQueue<Object> idle;
+
+		PoolProvider(Class<?> cls, int poolSize) {
+			super(cls);
+			this.permits = new Semaphore(poolSize, true);
+			this.idle = new ArrayBlockingQueue<Object>(poolSize);
+		}
+
+		@Override
+		public Object acquire() throws InstantiationException, IllegalAccessException, InterruptedException {
+			permits.acquire();
+			Object instance = idle.poll();
+			if (instance == null) {
+				try {
+					instance = cls.newInstance();
+				} catch (InstantiationException | IllegalAccessException | RuntimeException e) {
+					permits.release();
+					throw e;
+				}
+			}
+			return instance;
+		}
+
+		@Override
+		public void release(Object instance) {
+			if (instance != null) {
+				idle.offer(instance);
+			}
+			permits.release();
+		}
+
+		@Override
+		public InstanceScope getScope() {
+			return InstanceScope.POOL;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package appbus.proxy.invocation;
+
+/**
+ *
+ * Defines how instances of an application class are created for non-static
+ * methods. Declared per class via the <tt>instanceScope</tt> attribute of the
+ * <tt>ApplicationInterfaceInformation</tt>.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public enum InstanceScope {
+
+	/**
+	 * One shared instance for all invocations. The class has to be thread-safe.
+	 */
+	SINGLETON,
+
+	/**
+	 * One instance per worker thread.
+	 */
+	THREAD,
+
+	/**
+	 * Bounded pool of instances. Each instance is used by one invocation at a
+	 * time.
+	 */
+	POOL,
+
+	/**
+	 * A new instance for every invocation.
+	 */
+	CALL;
+
+	/**
+	 * @param value
+	 *            of the <tt>instanceScope</tt> attribute, e.g.
+	 *            <tt>singleton</tt>
+	 * @return the matching scope. {@link #CALL} if the value is <tt>null</tt>
+	 *         or unknown.
+	 */
+	public static InstanceScope fromString(String value) {
+		if (value != null) {
+			for (InstanceScope scope : values()) {
+				if (scope.name().equalsIgnoreCase(value.trim())) {
+					return scope;
+				}
+			}
+		}
+		return CALL;
+	}
+}
@@ -0,0 +1,151 @@
+package appbus.proxy.invocation;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Dispatch table of already resolved invocations. The <tt>class</tt> lookup
+ * and the search for a matching <tt>method</tt> are only done on the first
+ * invocation of an (class, operation, parameter types) combination. Following
+ * invocations reuse the cached {@link ResolvedInvoker}.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class InvokerCache {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private static final ConcurrentHashMap<InvokerKey, ResolvedInvoker> invokers = new ConcurrentHashMap<InvokerKey, ResolvedInvoker>();
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Returns the cached invoker for the specified invocation or resolves and
+	 * caches it on the first use.
+	 *
+	 * @param className
+	 * @param methodName
+	 * @param parameterTypes
+	 *            types of the transfered parameters
+	 * @return the resolved invoker. <tt>null</tt> if no method with matching
+	 *         name and number of parameters exists.
+	 * @throws ClassNotFoundException
+	 * @throws IllegalAccessException
+	 */
+	public static ResolvedInvoker get(String className, String methodName, Class<?>[] parameterTypes)
+			throws ClassNotFoundException, IllegalAccessException {
+
+		InvokerKey key = new InvokerKey(className, methodName, parameterTypes);
+
+		ResolvedInvoker invoker = invokers.get(key);
+		if (invoker != null) {
+			hits.incrementAndGet();
+			return invoker;
+		}
+		misses.incrementAndGet();
+
+		invoker = resolve(key);
+		if (invoker == null) {
+			return null;
+		}
+
+		ResolvedInvoker existing = invokers.putIfAbsent(key, invoker);
+		return existing != null ? existing : invoker;
+	}
+
+	/**
+	 * @return number of invocations served from the cache
+	 */
+	public static long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of invocations that needed to be resolved
+	 */
+	public static long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of cached invokers
+	 */
+	public static int size() {
+		return invokers.size();
+	}
+
+	/**
+	 * Removes all cached invokers, e.g. after the application classes were
+	 * replaced.
+	 */
+	public static void clear() {
+		invokers.clear();
+	}
+
+	private static ResolvedInvoker resolve(InvokerKey key) throws ClassNotFoundException, IllegalAccessException {
+
+		Class<?> cls = Class.forName(key.getClassName());
+		Class<?>[] classes = key.getParameterTypes();
+
+		Method method = null;
+		Converter[] converters = null;
+
+		for (Method m : cls.getMethods()) {
+			if (m.getName().equals(key.getMethodName())) {
+
+				Class<?>[] c = m.getParameterTypes();
+				if (Arrays.equals(c, classes)) {
+					System.out.println(PROXY + "Method with matching paramter types found.");
+					method = m;
+					converters = new Converter[c.length];
+					break;
+				}
+				if (method == null && c.length == classes.length) {
+					Converter[] plan = plan(m, classes);
+					if (plan != null) {
+						method = m;
+						converters = plan;
+					}
+				}
+			}
+		}
+
+		if (method == null) {
+			return null;
+		}
+
+		System.out.println(PROXY + "Resolved invoker for: " + key + " -> " + method);
+		return new ResolvedInvoker(key, cls, method, converters);
+	}
+
+	/**
+	 * Selects the converters for the transfered parameters.
+	 *
+	 * @return converters per parameter, <tt>null</tt> entries where no
+	 *         conversion is needed. <tt>null</tt> if a parameter can't be
+	 *         converted.
+	 */
+	private static Converter[] plan(Method method, Class<?>[] classes) {
+
+		Type[] types = method.getGenericParameterTypes();
+		Converter[] converters = new Converter[types.length];
+
+		for (int i = 0; i < types.length; i++) {
+			Converter converter = ConverterRegistry.lookup(classes[i], types[i]);
+			if (converter == null) {
+				return null;
+			}
+			if (converter != ConverterRegistry.IDENTITY) {
+				converters[i] = converter;
+			}
+		}
+		return converters;
+	}
+}
@@ -0,0 +1,81 @@
+package appbus.proxy.invocation;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Key of the {@link InvokerCache}. An invocation is identified by the name of
+ * the <tt>class</tt>, the name of the <tt>operation</tt> and the types of the
+ * transfered parameters.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public final class InvokerKey {
+
+	private final String className;
+	private final String methodName;
+	private final Class<?>[] parameterTypes;
+	private final int hash;
+
+	/**
+	 * @param className
+	 * @param methodName
+	 * @param parameterTypes
+	 *            types of the transfered parameters
+	 */
+	public InvokerKey(String className, String methodName, Class<?>[] parameterTypes) {
+		this.className = className;
+		this.methodName = methodName;
+		this.parameterTypes = parameterTypes != null ? parameterTypes : new Class<?>[0];
+
+		int h = className.hashCode();
+		h = 31 * h + methodName.hashCode();
+		h = 31 * h + Arrays.hashCode(this.parameterTypes);
+		this.hash = h;
+	}
+
+	/**
+	 * @return name of the class in which the specified method is located
+	 */
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * @return method that should be invoked
+	 */
+	public String getMethodName() {
+		return methodName;
+	}
+
+	/**
+	 * @return types of the transfered parameters
+	 */
+	public Class<?>[] getParameterTypes() {
+		return parameterTypes;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof InvokerKey)) {
+			return false;
+		}
+		InvokerKey other = (InvokerKey) obj;
+		return hash == other.hash && className.equals(other.className) && methodName.equals(other.methodName)
+				&& Arrays.equals(parameterTypes, other.parameterTypes);
+	}
+
+	@Override
+	public String toString() {
+		return className + "#" + methodName + Arrays.toString(parameterTypes);
+	}
+}
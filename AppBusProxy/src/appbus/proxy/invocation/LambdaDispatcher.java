@@ -0,0 +1,366 @@
+package appbus.proxy.invocation;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ *
+ * Optional dispatch engine for frequently invoked operations. Once a
+ * {@link ResolvedInvoker} reached the promotion threshold, the
+ * <tt>method</tt> is bound to a functional interface by the
+ * <tt>LambdaMetafactory</tt>. The resulting invoker calls the <tt>method</tt>
+ * directly, so the JIT can inline it like a normal call.
+ *
+ * The <tt>LambdaMetafactory</tt> is only available on Java 8 and newer and is
+ * therefore looked up at runtime. On older runtimes, for methods with more than
+ * {@value #MAX_PARAMETERS} parameters and for methods that are not accessible
+ * from outside their package the <tt>MethodHandle</tt> of the
+ * {@link ResolvedInvoker} is kept.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class LambdaDispatcher {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	/**
+	 * Maximum number of method parameters supported by the direct invokers.
+	 */
+	public static final int MAX_PARAMETERS = 3;
+
+	private static final MethodHandle metafactory = findMetafactory();
+
+	private static volatile int promotionThreshold = 1000;
+
+	private static final CopyOnWriteArrayList<String> promoted = new CopyOnWriteArrayList<String>();
+
+	/**
+	 * Invoker created by the {@link LambdaDispatcher}.
+	 */
+	public interface DirectInvoker {
+
+		/**
+		 * @param instance
+		 *            <tt>null</tt> for static methods
+		 * @param args
+		 *            already converted parameters
+		 * @return return value of the method. <tt>null</tt> if the method is of
+		 *         return type <tt>void</tt>.
+		 */
+		Object invoke(Object instance, Object[] args);
+	}
+
+	/**
+	 * @param threshold
+	 *            number of invocations after which an operation is promoted.
+	 *            <tt>0</tt> or less disables the promotion.
+	 */
+	public static void setPromotionThreshold(int threshold) {
+		promotionThreshold = threshold;
+	}
+
+	/**
+	 * @return number of invocations after which an operation is promoted.
+	 *         <tt>0</tt> or less if the promotion is disabled.
+	 */
+	public static int getPromotionThreshold() {
+		return promotionThreshold;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the runtime provides the
+	 *         <tt>LambdaMetafactory</tt>. Otherwise <tt>false</tt>
+	 */
+	public static boolean isAvailable() {
+		return metafactory != null;
+	}
+
+	/**
+	 * @return operations that are invoked by a direct invoker
+	 */
+	public static List<String> getPromoted() {
+		return new ArrayList<String>(promoted);
+	}
+
+	/**
+	 * Creates a direct invoker for the specified method.
+	 *
+	 * @param key
+	 *            of the operation, used for reporting
+	 * @param cls
+	 *            class on which the method is invoked
+	 * @param method
+	 * @return the direct invoker. <tt>null</tt> if the method can't be
+	 *         promoted.
+	 */
+	static DirectInvoker promote(InvokerKey key, Class<?> cls, Method method) {
+
+		if (metafactory == null) {
+			return null;
+		}
+
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		boolean isStatic = Modifier.isStatic(method.getModifiers());
+		boolean isVoid = method.getReturnType() == void.class;
+
+		if (parameterTypes.length > MAX_PARAMETERS || !Modifier.isPublic(cls.getModifiers())
+				|| !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+			System.out.println(PROXY + "Operation can't be promoted: " + key);
+			return null;
+		}
+
+		int slots = parameterTypes.length + (isStatic ? 0 : 1);
+
+		// Erased type of the functional interface and the type the lambda is
+		// instantiated with
+		Class<?>[] erased = new Class<?>[slots];
+		Class<?>[] instantiated = new Class<?>[slots];
+		int offset = 0;
+		if (!isStatic) {
+			erased[0] = Object.class;
+			instantiated[0] = cls;
+			offset = 1;
+		}
+		for (int i = 0; i < parameterTypes.length; i++) {
+			erased[offset + i] = Object.class;
+			instantiated[offset + i] = MethodType.methodType(parameterTypes[i]).wrap().returnType();
+		}
+
+		Class<?> returnType = isVoid ? void.class : Object.class;
+		Class<?> instantiatedReturnType = isVoid ? void.class
+				: MethodType.methodType(method.getReturnType()).wrap().returnType();
+
+		Class<?> functionalInterface = functionalInterface(slots, isVoid);
+
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodHandle implementation = lookup.unreflect(method);
+
+			CallSite callSite = (CallSite) metafactory.invokeWithArguments(lookup, "invoke",
+					MethodType.methodType(functionalInterface), MethodType.methodType(returnType, erased),
+					implementation, MethodType.methodType(instantiatedReturnType, instantiated));
+
+			Object function = callSite.getTarget().invoke();
+
+			DirectInvoker invoker = isStatic ? staticInvoker(function, slots, isVoid)
+					: instanceInvoker(function, slots, isVoid);
+
+			promoted.add(key.toString());
+			System.out.println(PROXY + "Operation promoted to direct invoker: " + key);
+			return invoker;
+
+		} catch (Throwable e) {
+			System.out.println(PROXY + "Promotion of operation failed: " + key);
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Removes all promoted operations from the report.
+	 */
+	public static void clear() {
+		promoted.clear();
+	}
+
+	private static MethodHandle findMetafactory() {
+		try {
+			Class<?> factory = Class.forName("java.lang.invoke.LambdaMetafactory");
+			return MethodHandles.publicLookup().findStatic(factory, "metafactory",
+					MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class,
+							MethodType.class, MethodType.class, MethodHandle.class, MethodType.class));
+		} catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+			System.out.println(PROXY + "LambdaMetafactory not available. Operations won't be promoted.");
+			return null;
+		}
+	}
+
+	private static Class<?> functionalInterface(int slots, boolean isVoid) {
+		switch (slots) {
+		case 0:
+			return isVoid ? V0.class : F0.class;
+		case 1:
+			return isVoid ? V1.class : F1.class;
+		case 2:
+			return isVoid ? V2.class : F2.class;
+		case 3:
+			return isVoid ? V3.class : F3.class;
+		default:
+			return isVoid ? V4.class : F4.class;
+		}
+	}
+
+	private static DirectInvoker staticInvoker(final Object function, int slots, boolean isVoid) {
+		switch (slots) {
+		case 0:
+			if (isVoid) {
+				return new DirectInvoker() {
+					public Object invoke(Object instance, Object[] args) {
+						((V0) function).invoke();
+						return null;
+					}
+				};
+			}
+			return new DirectInvoker() {
+				public Object invoke(Object instance, Object[] args) {
+					return ((F0) function).invoke();
+				}
+			};
+		case 1:
+			if (isVoid) {
+				return new DirectInvoker() {
+					public Object invoke(Object instance, Object[] args) {
+						((V1) function).invoke(args[0]);
+						return null;
+					}
+				};
+			}
+			return new DirectInvoker() {
+				public Object invoke(Object instance, Object[] args) {
+					return ((F1) function).invoke(args[0]);
+				}
+			};
+		case 2:
+			if (isVoid) {
+				return new DirectInvoker() {
+					public Object invoke(Object instance, Object[] args) {
+						((V2) function).invoke(args[0], args[1]);
+						return null;
+					}
+				};
+			}
+			return new DirectInvoker() {
+				public Object invoke(Object instance, Object[] args) {
+					return ((F2) function).invoke(args[0], args[1]);
+				}
+			};
+		default:
+			if (isVoid) {
+				return new DirectInvoker() {
+					public Object invoke(Object instance, Object[] args) {
+						((V3) function).invoke(args[0], args[1], args[2]);
+						return null;
+					}
+				};
+			}
+			return new DirectInvoker() {
+				public Object invoke(Object instance, Object[] args) {
+					return ((F3) function).invoke(args[0], args[1], args[2]);
+				}
+			};
+		}
+	}
+
+	private static DirectInvoker instanceInvoker(final Object function, int slots, boolean isVoid) {
+		switch (slots) {
+		case 1:
+			if (isVoid) {
+				return new DirectInvoker() {
+					public Object invoke(Object instance, Object[] args) {
+						((V1) function).invoke(instance);
+						return null;
+					}
+				};
+			}
+			return new DirectInvoker() {
+				public Object invoke(Object instance, Object[] args) {
+					return ((F1) function).invoke(instance);
+				}
+			};
+		case 2:
+			if (isVoid) {
+				return new DirectInvoker() {
+					public Object invoke(Object instance, Object[] args) {
+						((V2) function).invoke(instance, args[0]);
+						return null;
+					}
+				};
+			}
+			return new DirectInvoker() {
+				public Object invoke(Object instance, Object[] args) {
+					return ((F2) function).invoke(instance, args[0]);
+				}
+			};
+		case 3:
+			if (isVoid) {
+				return new DirectInvoker() {
+					public Object invoke(Object instance, Object[] args) {
+						((V3) function).invoke(instance, args[0], args[1]);
+						return null;
+					}
+				};
+			}
+			return new DirectInvoker() {
+				public Object invoke(Object instance, Object[] args) {
+					return ((F3) function).invoke(instance, args[0], args[1]);
+				}
+			};
+		default:
+			if (isVoid) {
+				return new DirectInvoker() {
+					public Object invoke(Object instance, Object[] args) {
+						((V4) function).invoke(instance, args[0], args[1], args[2]);
+						return null;
+					}
+				};
+			}
+			return new DirectInvoker() {
+				public Object invoke(Object instance, Object[] args) {
+					return ((F4) function).invoke(instance, args[0], args[1], args[2]);
+				}
+			};
+		}
+	}
+
+	// Functional interfaces implemented by the LambdaMetafactory. The first
+	// parameter is the instance for non-static methods.
+
+	interface F0 {
+		Object invoke();
+	}
+
+	interface F1 {
+		Object invoke(Object a);
+	}
+
+	interface F2 {
+		Object invoke(Object a, Object b);
+	}
+
+	interface F3 {
+		Object invoke(Object a, Object b, Object c);
+	}
+
+	interface F4 {
+		Object invoke(Object a, Object b, Object c, Object d);
+	}
+
+	interface V0 {
+		void invoke();
+	}
+
+	interface V1 {
+		void invoke(Object a);
+	}
+
+	interface V2 {
+		void invoke(Object a, Object b);
+	}
+
+	interface V3 {
+		void invoke(Object a, Object b, Object c);
+	}
+
+	interface V4 {
+		void invoke(Object a, Object b, Object c, Object d);
+	}
+}
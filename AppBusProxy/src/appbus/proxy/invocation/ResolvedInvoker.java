@@ -0,0 +1,176 @@
+package appbus.proxy.invocation;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.AtomicLong;
+
+import appbus.proxy.invocation.LambdaDispatcher.DirectInvoker;
+
+/**
+ *
+ * A resolved <tt>method</tt> that is ready to be invoked. Holds a
+ * <tt>MethodHandle</tt> with the unified type
+ * <tt>(Object, Object[])Object</tt> as well as the coercion plan, i.e. the
+ * {@link Converter} for every transfered parameter that does not match the
+ * parameter type of the <tt>method</tt>. Frequently invoked methods are
+ * switched over to a direct invoker of the {@link LambdaDispatcher}.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public final class ResolvedInvoker {
+
+	private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class,
+			Object[].class);
+
+	private final InvokerKey key;
+	private final Class<?> cls;
+	private final Method method;
+	private final MethodHandle handle;
+	private final boolean isStatic;
+	private final InstanceProvider instanceProvider;
+	private final Converter[] converters;
+	private final int parameterCount;
+
+	private final AtomicLong calls = new AtomicLong();
+	private volatile DirectInvoker direct;
+	private volatile boolean promotionDone;
+
+	/**
+	 * @param key
+	 *            of the operation
+	 * @param cls
+	 *            class in which the method is located
+	 * @param method
+	 *            method that should be invoked
+	 * @param converters
+	 *            per parameter. <tt>null</tt> entries if no conversion is
+	 *            needed.
+	 * @throws IllegalAccessException
+	 */
+	ResolvedInvoker(InvokerKey key, Class<?> cls, Method method, Converter[] converters)
+			throws IllegalAccessException {
+		this.key = key;
+		this.cls = cls;
+		this.method = method;
+		this.isStatic = Modifier.isStatic(method.getModifiers());
+		this.instanceProvider = isStatic ? null : InstanceProvider.forClass(cls);
+		this.converters = converters;
+		this.parameterCount = converters.length;
+
+		MethodHandle mh = MethodHandles.publicLookup().unreflect(method);
+		mh = mh.asSpreader(Object[].class, parameterCount);
+		if (isStatic) {
+			mh = MethodHandles.dropArguments(mh, 0, Object.class);
+		}
+		this.handle = mh.asType(INVOKER_TYPE);
+	}
+
+	/**
+	 * Converts the transfered parameters to the parameter types of the
+	 * <tt>method</tt> according to the coercion plan.
+	 *
+	 * @param params
+	 *            transfered parameters. Will be modified.
+	 * @return the converted parameters
+	 */
+	public Object[] coerce(Object[] params) {
+
+		if (params == null) {
+			return new Object[0];
+		}
+
+		for (int i = 0; i < parameterCount; i++) {
+			Converter converter = converters[i];
+			if (converter != null && params[i] != null) {
+				params[i] = converter.convert(params[i]);
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * Invokes the <tt>method</tt>.
+	 *
+	 * @param instance
+	 *            on which the method is invoked. <tt>null</tt> if the method is
+	 *            static.
+	 * @param args
+	 *            already converted parameters
+	 * @return return value of the method. <tt>null</tt> if the method is of
+	 *         return type <tt>void</tt>.
+	 * @throws Throwable
+	 *             anything thrown by the invoked method
+	 */
+	public Object invoke(Object instance, Object[] args) throws Throwable {
+
+		DirectInvoker directInvoker = direct;
+		if (directInvoker != null) {
+			return directInvoker.invoke(instance, args);
+		}
+
+		if (!promotionDone) {
+			int threshold = LambdaDispatcher.getPromotionThreshold();
+			if (threshold > 0 && calls.incrementAndGet() >= threshold) {
+				promote();
+			}
+		}
+
+		return (Object) handle.invokeExact(instance, args);
+	}
+
+	private synchronized void promote() {
+		if (!promotionDone) {
+			direct = LambdaDispatcher.promote(key, cls, method);
+			promotionDone = true;
+		}
+	}
+
+	/**
+	 * @return <tt>true</tt> if the method is invoked by a direct invoker of the
+	 *         {@link LambdaDispatcher}. Otherwise <tt>false</tt>
+	 */
+	public boolean isPromoted() {
+		return direct != null;
+	}
+
+	/**
+	 * @return key of the operation
+	 */
+	public InvokerKey getKey() {
+		return key;
+	}
+
+	/**
+	 * @return class in which the method is located
+	 */
+	public Class<?> getDeclaringClass() {
+		return cls;
+	}
+
+	/**
+	 * @return method that is invoked
+	 */
+	public Method getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return provider of the instances on which the method is invoked.
+	 *         <tt>null</tt> if the method is static.
+	 */
+	public InstanceProvider getInstanceProvider() {
+		return instanceProvider;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the method is static and needs no instance.
+	 *         Otherwise <tt>false</tt>
+	 */
+	public boolean isStatic() {
+		return isStatic;
+	}
+}
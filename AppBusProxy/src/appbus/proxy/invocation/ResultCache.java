@@ -0,0 +1,240 @@
+package appbus.proxy.invocation;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import appbus.proxy.config.ApplicationInterfaceInformation;
+import appbus.proxy.config.ApplicationInterfacesProperties;
+import appbus.proxy.model.requests.PostRequest;
+
+/**
+ *
+ * Memoizes the results of cacheable operations. Operations without side
+ * effects whose result only depends on the parameters are declared by
+ * <tt>cacheableOperations</tt> in the <tt>ApplicationInterfacesProperties</tt>.
+ * Identical invocations of these operations are answered from the cache
+ * instead of invoking the method again.
+ *
+ * Every class has its own partition with at most <tt>cacheSize</tt> results,
+ * evicting the least recently used one. Results are kept for
+ * <tt>cacheTtl</tt> milliseconds.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class ResultCache {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private static final ConcurrentHashMap<String, Partition> partitions = new ConcurrentHashMap<String, Partition>();
+
+	private static final AtomicLong hits = new AtomicLong();
+	private static final AtomicLong misses = new AtomicLong();
+	private static final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Cached result with the time it expires.
+	 */
+	private static class CachedResult {
+		final byte[] result;
+		final long expiresAt;
+
+		CachedResult(byte[] result, long expiresAt) {
+			this.result = result;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * Results of one class in access order. Access must be synchronized.
+	 */
+	private static class Partition extends LinkedHashMap<String, CachedResult> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int maxSize;
+		private final long ttlMillis;
+
+		Partition(int maxSize, long ttlMillis) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+			this.ttlMillis = ttlMillis;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+			if (size() > maxSize) {
+				evictions.incrementAndGet();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * @param postRequest
+	 *            invocation
+	 * @return the serialized result of an identical invocation. <tt>null</tt>
+	 *         if the operation is not cacheable or no valid result is cached.
+	 */
+	public static byte[] get(PostRequest postRequest) {
+
+		Partition partition = partitionOf(postRequest);
+		if (partition == null) {
+			return null;
+		}
+
+		String key = postRequest.getInvocationKey();
+		synchronized (partition) {
+			CachedResult entry = partition.get(key);
+			if (entry != null) {
+				if (entry.expiresAt > System.currentTimeMillis()) {
+					hits.incrementAndGet();
+					return entry.result;
+				}
+				partition.remove(key);
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Caches the result of the invocation, if the operation is cacheable.
+	 *
+	 * @param postRequest
+	 *            invocation
+	 * @param result
+	 *            serialized result of the invocation
+	 */
+	public static void put(PostRequest postRequest, byte[] result) {
+
+		Partition partition = partitionOf(postRequest);
+		if (partition == null) {
+			return;
+		}
+
+		String key = postRequest.getInvocationKey();
+		synchronized (partition) {
+			partition.put(key, new CachedResult(result, System.currentTimeMillis() + partition.ttlMillis));
+		}
+	}
+
+	/**
+	 * Removes cached results, e.g. because the underlying data changed.
+	 *
+	 * @param className
+	 *            class whose results are removed. <tt>null</tt> for all
+	 *            classes.
+	 * @param operation
+	 *            operation whose results are removed. <tt>null</tt> for all
+	 *            operations of the class.
+	 * @return number of removed results
+	 */
+	public static int invalidate(String className, String operation) {
+
+		int removed = 0;
+		for (Map.Entry<String, Partition> entry : partitions.entrySet()) {
+			if (className != null && !className.equals(entry.getKey())) {
+				continue;
+			}
+
+			Partition partition = entry.getValue();
+			synchronized (partition) {
+				if (operation == null) {
+					removed += partition.size();
+					partition.clear();
+				} else {
+					String prefix = entry.getKey() + "#" + operation + "[";
+					Iterator<String> keys = partition.keySet().iterator();
+					while (keys.hasNext()) {
+						if (keys.next().startsWith(prefix)) {
+							keys.remove();
+							removed++;
+						}
+					}
+				}
+			}
+		}
+
+		System.out.println(PROXY + "Invalidated " + removed + " cached result(s).");
+		return removed;
+	}
+
+	/**
+	 * Removes all partitions, e.g. after the properties were reloaded.
+	 */
+	public static void clear() {
+		partitions.clear();
+	}
+
+	/**
+	 * @return number of invocations answered from the cache
+	 */
+	public static long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of cacheable invocations that had to be invoked
+	 */
+	public static long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return share of cacheable invocations answered from the cache
+	 */
+	public static double getHitRate() {
+		long hit = hits.get();
+		long total = hit + misses.get();
+		return total > 0 ? (double) hit / total : 0;
+	}
+
+	/**
+	 * @return number of results evicted because a partition was full
+	 */
+	public static long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return number of cached results
+	 */
+	public static int size() {
+		int size = 0;
+		for (Partition partition : partitions.values()) {
+			synchronized (partition) {
+				size += partition.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return the partition of the class. <tt>null</tt> if the operation is
+	 *         not cacheable.
+	 */
+	private static Partition partitionOf(PostRequest postRequest) {
+
+		String className = postRequest.getClassName();
+		ApplicationInterfaceInformation information = ApplicationInterfacesProperties.get(className);
+		if (!information.isCacheable(postRequest.getMethodName())) {
+			return null;
+		}
+
+		Partition partition = partitions.get(className);
+		if (partition == null) {
+			partition = new Partition(information.getCacheSize(), information.getCacheTtl());
+			Partition existing = partitions.putIfAbsent(className, partition);
+			if (existing != null) {
+				partition = existing;
+			}
+		}
+		return partition;
+	}
+}
@@ -0,0 +1,360 @@
+package appbus.proxy.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.servlet.ServletContext;
+
+import org.json.simple.JSONObject;
+
+import appbus.proxy.execution.AdmissionControl;
+import appbus.proxy.execution.Bulkhead;
+import appbus.proxy.execution.Deadlines;
+import appbus.proxy.execution.LatencyHistogram;
+import appbus.proxy.execution.OperationMetrics;
+import appbus.proxy.execution.PriorityExecutor;
+import appbus.proxy.execution.SingleFlight;
+import appbus.proxy.execution.VirtualThreads;
+import appbus.proxy.invocation.InvokerCache;
+import appbus.proxy.invocation.ResultCache;
+import appbus.proxy.model.resources.CompressedResult;
+import appbus.proxy.model.resources.IdempotencyKeys;
+import appbus.proxy.model.resources.RequestJournal;
+import appbus.proxy.model.resources.RequestTable;
+import appbus.proxy.model.resources.TieredResult;
+
+/**
+ *
+ * Collects the metrics of all components of the proxy and writes them either
+ * as JSON or in the text format of Prometheus. Durations are exported in
+ * seconds. In JSON, histograms contain their cumulative buckets and the 50th,
+ * 90th and 99th percentile.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class MetricsWriter {
+
+	/**
+	 * Content type of the Prometheus text format.
+	 */
+	public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4";
+
+	private static final double[] LATENCY_BOUNDS = toSeconds(LatencyHistogram.BOUNDS);
+	private static final double[] POLL_BOUNDS = toDoubles(ProxyMetrics.POLL_BOUNDS);
+
+	private final List<Family> families = new ArrayList<Family>();
+
+	/**
+	 * Metric with all its samples.
+	 */
+	private static class Family {
+		final String name;
+		final String type;
+		final String help;
+		final List<Sample> samples = new ArrayList<Sample>();
+
+		Family(String name, String type, String help) {
+			this.name = name;
+			this.type = type;
+			this.help = help;
+		}
+	}
+
+	/**
+	 * Value or histogram of a metric with its labels.
+	 */
+	private static class Sample {
+		final Map<String, String> labels;
+		Number value;
+		double[] bounds;
+		long[] buckets;
+		long count;
+		double sum;
+		LatencyHistogram histogram;
+
+		Sample(Map<String, String> labels) {
+			this.labels = labels;
+		}
+	}
+
+	/**
+	 * Reads the current metrics.
+	 *
+	 * @param context
+	 *            of the servlet, containing the executor and the admission
+	 *            control
+	 */
+	public MetricsWriter(ServletContext context) {
+
+		ExecutorService executor = (ExecutorService) context.getAttribute("executor");
+		AdmissionControl shared = (AdmissionControl) context.getAttribute("admission");
+
+		// Requests
+		value("appbus_requests_total", "counter", "Accepted invocations.", ProxyMetrics.getRequests());
+		value("appbus_request_rate", "gauge", "Accepted invocations per second.", ProxyMetrics.getRequestRate());
+		Sample polls = sample(family("appbus_request_polls", "histogram",
+				"Status and result requests per request, observed when the request is removed."), labels());
+		polls.bounds = POLL_BOUNDS;
+		polls.buckets = ProxyMetrics.getPollBuckets();
+		polls.count = ProxyMetrics.getRemoved();
+		polls.sum = ProxyMetrics.getPolls();
+
+		// Executor
+		if (executor instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+			value("appbus_executor_queue_depth", "gauge", "Invocations waiting for a thread.", pool.getQueue().size());
+			value("appbus_executor_active_workers", "gauge", "Threads running an invocation.", pool.getActiveCount());
+			value("appbus_executor_pool_size", "gauge", "Threads of the executor.", pool.getPoolSize());
+			value("appbus_executor_completed_total", "counter", "Invocations completed by the executor.",
+					pool.getCompletedTaskCount());
+		}
+		if (executor instanceof PriorityExecutor) {
+			Family family = family("appbus_priority_queue_wait_seconds", "histogram",
+					"Time invocations waited in the queue of the executor per priority.");
+			for (Map.Entry<Integer, LatencyHistogram> entry : ((PriorityExecutor) executor).getQueueWaits()
+					.entrySet()) {
+				histogram(family, labels("priority", entry.getKey().toString()), entry.getValue());
+			}
+		}
+
+		// Admission control and bulkheads
+		Family outstanding = family("appbus_admission_outstanding", "gauge",
+				"Running and queued invocations per partition.");
+		Family capacity = family("appbus_admission_capacity", "gauge",
+				"Maximum running and queued invocations per partition.");
+		Family rejected = family("appbus_admission_rejected_total", "counter",
+				"Requests rejected because the partition was full.");
+		Family completed = family("appbus_admission_completed_total", "counter",
+				"Invocations finished per partition.");
+		Map<String, AdmissionControl> partitions = new LinkedHashMap<String, AdmissionControl>();
+		if (shared != null) {
+			partitions.put("shared", shared);
+		}
+		for (Bulkhead bulkhead : Bulkhead.getAll()) {
+			partitions.put(bulkhead.getName(), bulkhead);
+		}
+		for (Map.Entry<String, AdmissionControl> entry : partitions.entrySet()) {
+			Map<String, String> labels = labels("partition", entry.getKey());
+			sample(outstanding, labels).value = entry.getValue().getOutstanding();
+			sample(capacity, labels).value = entry.getValue().getCapacity();
+			sample(rejected, labels).value = entry.getValue().getRejected();
+			sample(completed, labels).value = entry.getValue().getCompleted();
+		}
+
+		// Operations
+		Family queueWait = family("appbus_queue_wait_seconds", "histogram",
+				"Time invocations waited for a thread per operation.");
+		Family execution = family("appbus_execution_seconds", "histogram",
+				"Time invocations were running per operation.");
+		Family failed = family("appbus_invocation_failures_total", "counter", "Failed invocations per operation.");
+		for (OperationMetrics metrics : OperationMetrics.getAll().values()) {
+			Map<String, String> labels = labels("class", metrics.getClassName(), "operation", metrics.getOperation());
+			histogram(queueWait, labels, metrics.getQueueWait());
+			histogram(execution, labels, metrics.getExecution());
+			sample(failed, labels).value = metrics.getFailed();
+		}
+
+		// Result store
+		RequestTable table = new RequestTable();
+		value("appbus_results", "gauge", "Requests in the request table.", table.size());
+		value("appbus_result_bytes", "gauge", "Size of the retained results.", table.getRetainedBytes());
+		value("appbus_result_offheap_results", "gauge", "Results in direct buffers.", TieredResult.getOffHeapResults());
+		value("appbus_result_offheap_bytes", "gauge", "Size of the results in direct buffers.",
+				TieredResult.getOffHeapBytes());
+		value("appbus_result_spilled_results", "gauge", "Results spilled to files.", TieredResult.getSpilledResults());
+		value("appbus_result_spilled_bytes", "gauge", "Size of the results spilled to files.",
+				TieredResult.getSpilledBytes());
+		value("appbus_result_spill_failures_total", "counter", "Results that couldn't be spilled.",
+				TieredResult.getSpillFailures());
+		value("appbus_compressed_results_total", "counter", "Compressed results.",
+				CompressedResult.getCompressedResults());
+		value("appbus_compression_uncompressed_bytes_total", "counter", "Size of the compressed results before.",
+				CompressedResult.getUncompressedBytes());
+		value("appbus_compression_compressed_bytes_total", "counter", "Size of the compressed results after.",
+				CompressedResult.getCompressedBytes());
+		value("appbus_journal_bytes", "gauge", "Size of the request journal.", RequestJournal.size());
+		value("appbus_journal_live_bytes", "gauge", "Size of the events of requests in the table.",
+				RequestJournal.getLiveBytes());
+
+		// Caches and coalescing
+		value("appbus_result_cache_entries", "gauge", "Results in the result cache.", ResultCache.size());
+		value("appbus_result_cache_hits_total", "counter", "Invocations answered from the result cache.",
+				ResultCache.getHits());
+		value("appbus_result_cache_misses_total", "counter", "Cacheable invocations not in the result cache.",
+				ResultCache.getMisses());
+		value("appbus_result_cache_evictions_total", "counter", "Results evicted from the result cache.",
+				ResultCache.getEvictions());
+		value("appbus_invoker_cache_hits_total", "counter", "Invocations with a resolved invoker.",
+				InvokerCache.getHits());
+		value("appbus_invoker_cache_misses_total", "counter", "Invocations that resolved the method.",
+				InvokerCache.getMisses());
+		value("appbus_coalesced_total", "counter", "Requests that shared an identical invocation in flight.",
+				SingleFlight.getCoalesced());
+		value("appbus_idempotency_keys", "gauge", "Remembered idempotency keys.", new IdempotencyKeys().size());
+		value("appbus_deadlines", "gauge", "Scheduled invocation deadlines.", Deadlines.size());
+		value("appbus_virtual_thread_pinned_total", "counter", "Virtual threads that pinned their carrier.",
+				VirtualThreads.getPinnedEvents());
+	}
+
+	/**
+	 * Writes the metrics as JSON object with one member per metric.
+	 *
+	 * @param out
+	 *            writer of the response
+	 * @throws IOException
+	 */
+	public void writeJSON(Writer out) throws IOException {
+
+		JSONObject obj = new JSONObject();
+		for (Family family : families) {
+			List<Object> samples = new ArrayList<Object>();
+			for (Sample sample : family.samples) {
+				JSONObject item = new JSONObject();
+				item.put("labels", sample.labels);
+				if (sample.bounds == null) {
+					item.put("value", sample.value);
+				} else {
+					Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+					long cumulative = 0;
+					for (int i = 0; i < sample.buckets.length; i++) {
+						cumulative += sample.buckets[i];
+						buckets.put(i < sample.bounds.length ? format(sample.bounds[i]) : "+Inf", cumulative);
+					}
+					item.put("count", sample.count);
+					item.put("sum", sample.sum);
+					item.put("buckets", buckets);
+					if (sample.histogram != null) {
+						item.put("p50", sample.histogram.getPercentile(50) / 1000);
+						item.put("p90", sample.histogram.getPercentile(90) / 1000);
+						item.put("p99", sample.histogram.getPercentile(99) / 1000);
+						item.put("max", sample.histogram.getMax() / 1000);
+					}
+				}
+				samples.add(item);
+			}
+
+			JSONObject metric = new JSONObject();
+			metric.put("type", family.type);
+			metric.put("help", family.help);
+			metric.put("samples", samples);
+			obj.put(family.name, metric);
+		}
+		obj.writeJSONString(out);
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text format.
+	 *
+	 * @param out
+	 *            writer of the response
+	 * @throws IOException
+	 */
+	public void writePrometheus(Writer out) throws IOException {
+
+		for (Family family : families) {
+			out.write("# HELP " + family.name + " " + family.help + "\n");
+			out.write("# TYPE " + family.name + " " + family.type + "\n");
+
+			for (Sample sample : family.samples) {
+				if (sample.bounds == null) {
+					out.write(family.name + labels(sample.labels, null) + " " + sample.value + "\n");
+					continue;
+				}
+				long cumulative = 0;
+				for (int i = 0; i < sample.buckets.length; i++) {
+					cumulative += sample.buckets[i];
+					String le = i < sample.bounds.length ? format(sample.bounds[i]) : "+Inf";
+					out.write(family.name + "_bucket" + labels(sample.labels, le) + " " + cumulative + "\n");
+				}
+				out.write(family.name + "_sum" + labels(sample.labels, null) + " " + sample.sum + "\n");
+				out.write(family.name + "_count" + labels(sample.labels, null) + " " + sample.count + "\n");
+			}
+		}
+	}
+
+	private Family family(String name, String type, String help) {
+		Family family = new Family(name, type, help);
+		families.add(family);
+		return family;
+	}
+
+	private void value(String name, String type, String help, Number value) {
+		sample(family(name, type, help), labels()).value = value;
+	}
+
+	private static Sample sample(Family family, Map<String, String> labels) {
+		Sample sample = new Sample(labels);
+		family.samples.add(sample);
+		return sample;
+	}
+
+	private static void histogram(Family family, Map<String, String> labels, LatencyHistogram histogram) {
+		Sample sample = sample(family, labels);
+		sample.bounds = LATENCY_BOUNDS;
+		sample.buckets = histogram.getBuckets();
+		sample.count = histogram.getCount();
+		sample.sum = histogram.getSum() / 1000;
+		sample.histogram = histogram;
+	}
+
+	private static Map<String, String> labels(String... namesAndValues) {
+		Map<String, String> labels = new LinkedHashMap<String, String>();
+		for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+			labels.put(namesAndValues[i], namesAndValues[i + 1]);
+		}
+		return labels;
+	}
+
+	/**
+	 * @return labels in the Prometheus text format, with the bucket bound
+	 *         <tt>le</tt> if not <tt>null</tt>
+	 */
+	private static String labels(Map<String, String> labels, String le) {
+		Map<String, String> all = labels;
+		if (le != null) {
+			all = new LinkedHashMap<String, String>(labels);
+			all.put("le", le);
+		}
+		if (all.isEmpty()) {
+			return "";
+		}
+
+		StringBuilder sb = new StringBuilder("{");
+		for (Map.Entry<String, String> entry : all.entrySet()) {
+			if (sb.length() > 1) {
+				sb.append(',');
+			}
+			sb.append(entry.getKey()).append("=\"");
+			sb.append(entry.getValue().replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"));
+			sb.append('"');
+		}
+		return sb.append('}').toString();
+	}
+
+	private static String format(double bound) {
+		return bound == Math.rint(bound) ? Long.toString((long) bound) : Double.toString(bound);
+	}
+
+	private static double[] toSeconds(long[] millis) {
+		double[] seconds = new double[millis.length];
+		for (int i = 0; i < millis.length; i++) {
+			seconds[i] = millis[i] / 1000.0;
+		}
+		return seconds;
+	}
+
+	private static double[] toDoubles(long[] values) {
+		double[] doubles = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			doubles[i] = values[i];
+		}
+		return doubles;
+	}
+}
@@ -0,0 +1,113 @@
+package appbus.proxy.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ *
+ * Counters of the proxy that don't belong to another component: accepted
+ * invocations, their rate and how often clients polled a request before it
+ * was removed. All other metrics are read from their components by the
+ * {@link MetricsWriter}.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class ProxyMetrics {
+
+	/**
+	 * Upper bounds of the buckets of polls per request.
+	 */
+	public static final long[] POLL_BOUNDS = { 0, 1, 2, 5, 10, 20, 50, 100 };
+
+	// Minimum interval between two updates of the request rate
+	private static final long RATE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+	private static final AtomicLong requests = new AtomicLong();
+	private static final AtomicLong polls = new AtomicLong();
+	private static final AtomicLongArray pollBuckets = new AtomicLongArray(POLL_BOUNDS.length + 1);
+	private static final AtomicLong removed = new AtomicLong();
+
+	// Request rate per second, smoothed exponentially
+	private static volatile double requestRate;
+	private static volatile long lastRequests;
+	private static volatile long lastUpdate = System.nanoTime();
+
+	/**
+	 * @param count
+	 *            number of accepted invocations, e.g. of a batch
+	 */
+	public static void requested(int count) {
+		requests.addAndGet(count);
+	}
+
+	/**
+	 * @param requestPolls
+	 *            number of status and result requests of a removed request
+	 */
+	public static void removed(int requestPolls) {
+		int i = 0;
+		while (i < POLL_BOUNDS.length && requestPolls > POLL_BOUNDS[i]) {
+			i++;
+		}
+		pollBuckets.incrementAndGet(i);
+		polls.addAndGet(requestPolls);
+		removed.incrementAndGet();
+	}
+
+	/**
+	 * @return number of accepted invocations
+	 */
+	public static long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return accepted invocations per second
+	 */
+	public static double getRequestRate() {
+		long now = System.nanoTime();
+		long elapsed = now - lastUpdate;
+		if (elapsed >= RATE_INTERVAL) {
+			synchronized (ProxyMetrics.class) {
+				elapsed = now - lastUpdate;
+				if (elapsed >= RATE_INTERVAL) {
+					long count = requests.get();
+					double rate = (count - lastRequests) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+					requestRate = lastRequests == 0 && requestRate == 0 ? rate : 0.5 * requestRate + 0.5 * rate;
+					lastRequests = count;
+					lastUpdate = now;
+				}
+			}
+		}
+		return requestRate;
+	}
+
+	/**
+	 * @return number of removed requests per bucket of {@link #POLL_BOUNDS},
+	 *         not cumulative. The last entry counts the requests above all
+	 *         bounds.
+	 */
+	public static long[] getPollBuckets() {
+		long[] values = new long[pollBuckets.length()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = pollBuckets.get(i);
+		}
+		return values;
+	}
+
+	/**
+	 * @return number of polls of all removed requests
+	 */
+	public static long getPolls() {
+		return polls.get();
+	}
+
+	/**
+	 * @return number of removed requests
+	 */
+	public static long getRemoved() {
+		return removed.get();
+	}
+}
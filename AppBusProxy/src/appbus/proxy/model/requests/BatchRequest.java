@@ -0,0 +1,90 @@
+package appbus.proxy.model.requests;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+
+import org.json.simple.parser.ParseException;
+
+/**
+ * 
+ * This class checks if the URI can be mapped to the supported RESTful URI
+ * <tt>{@literal [/appInvoker/batch]}</tt> of the servlet. Reads the JSON array
+ * of invocations, every element containing <tt>invocation-information</tt>
+ * and <tt>params</tt> like a single invocation.
+ * 
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class BatchRequest {
+
+	// Checks if url is supported
+	private static String batchPattern = "/appInvoker/batch";
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private List<PostRequest> invocations;
+
+	/**
+	 * 
+	 * BatchRequest containing a PostRequest for every invocation.
+	 * 
+	 * @param request
+	 * @throws ServletException
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public BatchRequest(HttpServletRequest request) throws ServletException, IOException, ParseException {
+
+		if (!isBatch(request.getPathInfo())) {
+			System.out.println(PROXY + "Invalid URI.");
+			throw new ServletException(PROXY + "Invalid URI.");
+		}
+
+		Object json = PostRequest.readBody(request);
+
+		if (!(json instanceof List)) {
+			System.out.println(PROXY + "Array of invocations expected.");
+			throw new ServletException(PROXY + "Array of invocations expected.");
+		}
+
+		List<?> list = (List<?>) json;
+		invocations = new ArrayList<PostRequest>(list.size());
+
+		for (Object invocation : list) {
+			if (!(invocation instanceof Map)) {
+				System.out.println(PROXY + "Invocation is not a JSON object.");
+				throw new ServletException(PROXY + "Invocation is not a JSON object.");
+			}
+			try {
+				invocations.add(new PostRequest((Map<String, ?>) invocation));
+			} catch (ClassCastException e) {
+				System.out.println(PROXY + "Malformed invocation.");
+				throw new ServletException(PROXY + "Malformed invocation.", e);
+			}
+		}
+
+		System.out.println(PROXY + "Batch of " + invocations.size() + " invocations.");
+	}
+
+	/**
+	 * @param pathInfo
+	 * @return <tt>true</tt> if the pathInfo is the batch URI. Otherwise
+	 *         <tt>false</tt>
+	 */
+	public static boolean isBatch(String pathInfo) {
+		return pathInfo != null && pathInfo.equals(batchPattern);
+	}
+
+	/**
+	 * @return the invocations of the batch in the transfered order
+	 */
+	public List<PostRequest> getInvocations() {
+		return invocations;
+	}
+}
@@ -0,0 +1,73 @@
+package appbus.proxy.model.requests;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+
+/**
+ * 
+ * This class checks if the URI can be mapped to the supported RESTful URI
+ * <tt>{@literal [/appInvoker/cache(/class(/operation)?)?]}</tt> of the
+ * servlet. Reads the class and operation whose cached results should be
+ * invalidated.
+ * 
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class CacheRequest {
+
+	// Checks if url is supported
+	private static Pattern regExCachePattern = Pattern.compile("^/appInvoker/cache(?:/([^/]+)(?:/([^/]+))?)?/?$");
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private String className;
+	private String methodName;
+
+	/**
+	 * 
+	 * CacheRequest including class and operation.
+	 * 
+	 * @param pathInfo
+	 * @throws ServletException
+	 */
+	public CacheRequest(String pathInfo) throws ServletException {
+
+		Matcher matcher = pathInfo != null ? regExCachePattern.matcher(pathInfo) : null;
+
+		if (matcher == null || !matcher.find()) {
+			System.out.println(PROXY + "Invalid URI.");
+			throw new ServletException(PROXY + "Invalid URI.");
+		}
+
+		className = matcher.group(1);
+		methodName = matcher.group(2);
+	}
+
+	/**
+	 * @param pathInfo
+	 * @return <tt>true</tt> if the pathInfo is a cache URI. Otherwise
+	 *         <tt>false</tt>
+	 */
+	public static boolean isCache(String pathInfo) {
+		return pathInfo != null && regExCachePattern.matcher(pathInfo).find();
+	}
+
+	/**
+	 * @return class whose results should be invalidated. <tt>null</tt> for
+	 *         all classes.
+	 */
+	public String getClassName() {
+		return className;
+	}
+
+	/**
+	 * @return operation whose results should be invalidated. <tt>null</tt>
+	 *         for all operations of the class.
+	 */
+	public String getMethodName() {
+		return methodName;
+	}
+}
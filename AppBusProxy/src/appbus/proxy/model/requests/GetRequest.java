@@ -1,16 +1,20 @@
 package appbus.proxy.model.requests;
 
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * 
  * This class checks if the URI can be mapped to the supported RESTful URIs (
  * <tt>{@literal [/appInvoker/activeRequests/([0-9]*)$]}</tt> &
- * <tt>{@literal [/appInvoker/activeRequests/([0-9]*)$/response$]}</tt>) of the
- * AppInvoker JsonHTTTP API. Furthermore reads the requestID as well as if the
+ * <tt>{@literal [/appInvoker/activeRequests/([0-9]*)$/response$]}</tt> &
+ * <tt>{@literal [/appInvoker/batches/([0-9]*)$]}</tt> &
+ * <tt>{@literal [/appInvoker/activeRequests?ids=...]}</tt>) of the AppInvoker
+ * JsonHTTTP API. Furthermore reads the requestID (or batchID) as well as if the
  * queue should be polled or the result should be returned.
  * 
  * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
@@ -21,12 +25,22 @@ public class GetRequest {
 	// Checks if url is supported
 	private static Pattern regExQueuePattern = Pattern.compile("^/appInvoker/activeRequests/([0-9]*)$");
 	private static Pattern regExResponsePattern = Pattern.compile("^/appInvoker/activeRequests/([0-9]*)/response$");
+	private static Pattern regExBatchPattern = Pattern.compile("^/appInvoker/batches/([0-9]*)$");
+	private static Pattern regExStatusPattern = Pattern.compile("^/appInvoker/activeRequests/?$");
+
+	// Limit for the number of requestIDs of a status query
+	private final static int MAX_IDS = 10000;
 
 	// just for logging
 	private final static String PROXY = "AppBusProxy: ";
 
-	private Integer requestID;
+	private Long requestID;
 	private Boolean isQueuePolling;
+	private boolean isBatchPolling;
+	private long waitMillis;
+	private boolean isStatusQuery;
+	private long[] requestIDs;
+	private boolean includeResults;
 
 	/**
 	 * 
@@ -42,17 +56,32 @@ public class GetRequest {
 
 		if (pathInfo != null) {
 
+			matcher = regExStatusPattern.matcher(pathInfo);
+			if (matcher.find()) {
+				isQueuePolling = false;
+				isStatusQuery = true;
+				return;
+			}
+
 			matcher = regExQueuePattern.matcher(pathInfo);
 			if (matcher.find()) {
-				requestID = Integer.parseInt(matcher.group(1));
+				requestID = parseID(matcher.group(1));
 				isQueuePolling = true;
 				return;
 			}
 
 			matcher = regExResponsePattern.matcher(pathInfo);
 			if (matcher.find()) {
-				requestID = Integer.parseInt(matcher.group(1));
+				requestID = parseID(matcher.group(1));
+				isQueuePolling = false;
+				return;
+			}
+
+			matcher = regExBatchPattern.matcher(pathInfo);
+			if (matcher.find()) {
+				requestID = parseID(matcher.group(1));
 				isQueuePolling = false;
+				isBatchPolling = true;
 				return;
 			}
 		}
@@ -60,17 +89,118 @@ public class GetRequest {
 		throw new ServletException(PROXY + "Invalid URI.");
 	}
 
+	/**
+	 * 
+	 * GetRequest including the requestID, if the queue should be polled or the
+	 * result should be returned as well as the time the client is willing to
+	 * wait for the invocation to finish.
+	 * 
+	 * @param pathInfo
+	 * @param wait
+	 *            value of the <tt>wait</tt> query parameter in milliseconds.
+	 *            Can be <tt>null</tt>.
+	 * @throws ServletException
+	 */
+	public GetRequest(String pathInfo, String wait) throws ServletException {
+		this(pathInfo);
+
+		if (wait != null) {
+			try {
+				waitMillis = Long.parseLong(wait.trim());
+			} catch (NumberFormatException e) {
+				System.out.println(PROXY + "Invalid wait time: " + wait);
+				throw new ServletException(PROXY + "Invalid wait time: " + wait);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * GetRequest read from the URI and the query parameters <tt>wait</tt>,
+	 * <tt>ids</tt> and <tt>results</tt> of the request. <tt>ids</tt> is a comma
+	 * separated list of requestIDs and ranges, e.g. <tt>1,4,10-20</tt>.
+	 * 
+	 * @param request
+	 * @throws ServletException
+	 */
+	public GetRequest(HttpServletRequest request) throws ServletException {
+		this(request.getPathInfo(), request.getParameter("wait"));
+
+		if (isStatusQuery) {
+			requestIDs = parseIDs(request.getParameter("ids"));
+			includeResults = Boolean.parseBoolean(request.getParameter("results"));
+		}
+	}
+
+	private static long parseID(String id) throws ServletException {
+		try {
+			return Long.parseLong(id);
+		} catch (NumberFormatException e) {
+			System.out.println(PROXY + "Invalid requestID: " + id);
+			throw new ServletException(PROXY + "Invalid requestID: " + id);
+		}
+	}
+
+	private static long[] parseIDs(String ids) throws ServletException {
+
+		if (ids == null || ids.trim().isEmpty()) {
+			System.out.println(PROXY + "No requestIDs specified.");
+			throw new ServletException(PROXY + "No requestIDs specified.");
+		}
+
+		long[] list = new long[16];
+		int count = 0;
+		try {
+			for (String part : ids.split(",")) {
+				part = part.trim();
+				int dash = part.indexOf('-', 1);
+				if (dash > 0) {
+					long from = Long.parseLong(part.substring(0, dash).trim());
+					long to = Long.parseLong(part.substring(dash + 1).trim());
+					// Negative if the span overflows, counted so id can't wrap
+					long span = to - from;
+					if (from > to || span < 0) {
+						throw new NumberFormatException("Invalid range: " + part);
+					}
+					for (long i = 0; i <= span; i++) {
+						if (count == MAX_IDS) {
+							throw new ServletException(PROXY + "Too many requestIDs.");
+						}
+						list = add(list, count++, from + i);
+					}
+				} else if (!part.isEmpty()) {
+					list = add(list, count++, Long.parseLong(part));
+				}
+				if (count > MAX_IDS) {
+					throw new ServletException(PROXY + "Too many requestIDs.");
+				}
+			}
+		} catch (NumberFormatException e) {
+			System.out.println(PROXY + "Invalid requestIDs: " + ids);
+			throw new ServletException(PROXY + "Invalid requestIDs: " + ids);
+		}
+		return Arrays.copyOf(list, count);
+	}
+
+	private static long[] add(long[] list, int index, long id) {
+		if (index == list.length) {
+			list = Arrays.copyOf(list, list.length * 2);
+		}
+		list[index] = id;
+		return list;
+	}
+
 	/**
 	 * @return requestID of the GetRequest
 	 */
-	public Integer getRequestID() {
+	public Long getRequestID() {
 		return requestID;
 	}
 
 	/**
 	 * @param requestID
 	 */
-	public void setRequestID(Integer requestID) {
+	public void setRequestID(Long requestID) {
 		this.requestID = requestID;
 	}
 
@@ -94,4 +224,59 @@ public class GetRequest {
 	public void setQueuePolling(Boolean isQueuePolling) {
 		this.isQueuePolling = isQueuePolling;
 	}
+
+	/**
+	 * @return <tt>true</tt> if
+	 *         <tt>{@literal [/appInvoker/batches/([0-9]*)$]}</tt> was called.
+	 *         The requestID is the ID of the batch then.
+	 */
+	public boolean isBatchPolling() {
+		return isBatchPolling;
+	}
+
+	/**
+	 * @param isBatchPolling
+	 */
+	public void setBatchPolling(boolean isBatchPolling) {
+		this.isBatchPolling = isBatchPolling;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the status of several requests was queried by
+	 *         <tt>{@literal [/appInvoker/activeRequests?ids=...]}</tt>.
+	 */
+	public boolean isStatusQuery() {
+		return isStatusQuery;
+	}
+
+	/**
+	 * @return requestIDs of a status query
+	 */
+	public long[] getRequestIDs() {
+		return requestIDs;
+	}
+
+	/**
+	 * @return <tt>true</tt> if the results of finished invocations should be
+	 *         returned by a status query. Otherwise <tt>false</tt>
+	 */
+	public boolean isIncludeResults() {
+		return includeResults;
+	}
+
+	/**
+	 * @return time in milliseconds the client is willing to wait for the
+	 *         invocation to finish. <tt>0</tt> if the status should be returned
+	 *         immediately.
+	 */
+	public long getWaitMillis() {
+		return waitMillis;
+	}
+
+	/**
+	 * @param waitMillis
+	 */
+	public void setWaitMillis(long waitMillis) {
+		this.waitMillis = waitMillis;
+	}
 }
@@ -0,0 +1,92 @@
+package appbus.proxy.model.requests;
+
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * 
+ * This class checks if the URI can be mapped to the supported RESTful URI
+ * <tt>{@literal [/metrics]}</tt> of the servlet. Reads the requested format,
+ * JSON by default and the Prometheus text format if requested by
+ * <tt>format=prometheus</tt> or an <tt>Accept</tt> header listing
+ * <tt>text/plain</tt> with at least the quality of <tt>application/json</tt>,
+ * like the one of a Prometheus scraper.
+ * 
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class MetricsRequest {
+
+	// Checks if url is supported
+	private static Pattern regExMetricsPattern = Pattern.compile("^/metrics/?$");
+
+	private boolean prometheus;
+
+	/**
+	 * 
+	 * MetricsRequest including the format.
+	 * 
+	 * @param request
+	 */
+	public MetricsRequest(HttpServletRequest request) {
+
+		String format = request.getParameter("format");
+		if (format != null) {
+			prometheus = format.equalsIgnoreCase("prometheus");
+		} else {
+			String accept = request.getHeader("Accept");
+			double text = qualityOf(accept, "text/plain");
+			prometheus = text > 0 && text >= qualityOf(accept, "application/json");
+		}
+	}
+
+	/**
+	 * @param accept
+	 *            <tt>Accept</tt> header of a request
+	 * @param mediaType
+	 *            in lower case
+	 * @return quality of the media type in the header. <tt>0</tt> if it is
+	 *         not listed.
+	 */
+	private static double qualityOf(String accept, String mediaType) {
+		if (accept == null) {
+			return 0;
+		}
+		for (String range : accept.split(",")) {
+			String[] parts = range.split(";");
+			if (!parts[0].trim().toLowerCase().equals(mediaType)) {
+				continue;
+			}
+			for (int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].trim();
+				if (parameter.startsWith("q=")) {
+					try {
+						return Double.parseDouble(parameter.substring(2));
+					} catch (NumberFormatException e) {
+						return 0;
+					}
+				}
+			}
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * @param pathInfo
+	 * @return <tt>true</tt> if the pathInfo is the metrics URI. Otherwise
+	 *         <tt>false</tt>
+	 */
+	public static boolean isMetrics(String pathInfo) {
+		return pathInfo != null && regExMetricsPattern.matcher(pathInfo).find();
+	}
+
+	/**
+	 * @return <tt>true</tt> if the metrics are requested in the Prometheus
+	 *         text format. Otherwise <tt>false</tt> for JSON.
+	 */
+	public boolean isPrometheus() {
+		return prometheus;
+	}
+}
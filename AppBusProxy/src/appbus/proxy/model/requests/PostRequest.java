@@ -1,19 +1,29 @@
 package appbus.proxy.model.requests;
 
-import java.io.BufferedReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 
+import org.json.simple.JSONValue;
 import org.json.simple.parser.ContainerFactory;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+import appbus.proxy.encoding.Cbor;
+import appbus.proxy.encoding.WireFormat;
+import appbus.proxy.model.resources.SerializedResult;
+
 /**
  * 
  * This class checks if the URI can be mapped to the supported RESTful URI
@@ -31,15 +41,23 @@ public class PostRequest {
 	// just for logging
 	private final static String PROXY = "AppBusProxy: ";
 
+	// Maximum size of a body, if not configured in the servlet context
+	private final static long DEFAULT_MAX_BODY_SIZE = 10L * 1024 * 1024;
+
 	private String className;
 	private String methodName;
 	private Class<?>[] classesList;
 	private Object[] paramsList;
+	private long waitMillis;
+	private Integer priority;
+	private String invocationKey;
+	private WireFormat resultFormat = WireFormat.JSON;
 
 	/**
 	 * 
 	 * PostRequest containing the className, methodName as well as the
-	 * transfered parameters.
+	 * transfered parameters. The result is encoded as accepted by the client,
+	 * by default like the request.
 	 * 
 	 * @param request
 	 * @throws ServletException
@@ -56,54 +74,135 @@ public class PostRequest {
 
 			LinkedHashMap<String, LinkedHashMap<String, Object>> requestMap = requestToMap(request);
 
-			LinkedHashMap<String, Object> infosMap = (LinkedHashMap<String, Object>) requestMap
-					.get("invocation-information");
+			readInvocation(requestMap);
+
+			resultFormat = WireFormat.fromAccept(request.getHeader("Accept"),
+					WireFormat.fromContentType(request.getContentType()));
+			return;
+		}
+		System.out.println(PROXY + "Invalid URI.");
+		throw new ServletException(PROXY + "Invalid URI.");
+	}
+
+	/**
+	 * 
+	 * PostRequest for a single invocation of a batch.
+	 * 
+	 * @param invocationMap
+	 *            containing the <tt>invocation-information</tt> and the
+	 *            <tt>params</tt> of the invocation
+	 * @throws ServletException
+	 */
+	public PostRequest(Map<String, ?> invocationMap) throws ServletException {
+		readInvocation(invocationMap);
+	}
 
-			if (infosMap != null) {
+	/**
+	 * 
+	 * Inverse of {@link #PostRequest(Map)}, e.g. to store the invocation.
+	 * Parameters are named by their position.
+	 * 
+	 * @return map containing the <tt>invocation-information</tt> and the
+	 *         <tt>params</tt> of the invocation
+	 */
+	public Map<String, Object> toMap() {
 
-				className = (String) infosMap.get("class");
-				methodName = (String) infosMap.get("operation");
+		LinkedHashMap<String, Object> infosMap = new LinkedHashMap<String, Object>();
+		infosMap.put("class", className);
+		infosMap.put("operation", methodName);
+		if (priority != null) {
+			infosMap.put("priority", (long) priority);
+		}
 
-				System.out.println(PROXY + "Class: " + className);
-				System.out.println(PROXY + "Method: " + methodName);
+		LinkedHashMap<String, Object> paramsMap = new LinkedHashMap<String, Object>();
+		if (paramsList != null) {
+			for (int i = 0; i < paramsList.length; i++) {
+				paramsMap.put(Integer.toString(i), paramsList[i]);
+			}
+		}
 
-				if (className != null && methodName != null) {
+		LinkedHashMap<String, Object> invocationMap = new LinkedHashMap<String, Object>();
+		invocationMap.put("invocation-information", infosMap);
+		if (!paramsMap.isEmpty()) {
+			invocationMap.put("params", paramsMap);
+		}
+		return invocationMap;
+	}
 
-					LinkedHashMap<String, Object> paramsMap = (LinkedHashMap<String, Object>) requestMap.get("params");
+	/**
+	 * Reads className, methodName and parameters of an invocation.
+	 * 
+	 * @param requestMap
+	 * @throws ServletException
+	 */
+	private void readInvocation(Map<String, ?> requestMap) throws ServletException {
 
-					if (paramsMap != null) {
+		LinkedHashMap<String, Object> infosMap = (LinkedHashMap<String, Object>) requestMap
+				.get("invocation-information");
 
-						int size = paramsMap.size();
+		if (infosMap != null) {
 
-						classesList = new Class<?>[size];
-						paramsList = new Object[size];
+			className = (String) infosMap.get("class");
+			methodName = (String) infosMap.get("operation");
 
-						int i = 0;
-						for (Entry<String, Object> set : paramsMap.entrySet()) {
-							System.out.println(PROXY + "Key: " + set.getKey());
-							Object obj = set.getValue();
-							System.out.println(PROXY + "Value: " + set.getValue() + " Type: " + obj.getClass());
-							classesList[i] = obj.getClass();
-							paramsList[i] = obj;
-							i++;
-						}
+			System.out.println(PROXY + "Class: " + className);
+			System.out.println(PROXY + "Method: " + methodName);
 
-					} else {
-						classesList = new Class<?>[0];
-						System.out.println(PROXY + "No parameter specified.");
+			Object wait = infosMap.get("wait");
+			if (wait instanceof Number) {
+				waitMillis = ((Number) wait).longValue();
+			} else if (wait instanceof String) {
+				try {
+					waitMillis = Long.parseLong((String) wait);
+				} catch (NumberFormatException e) {
+					throw new ServletException(PROXY + "Invalid wait time: " + wait);
+				}
+			}
+
+			Object priority = infosMap.get("priority");
+			if (priority instanceof Number) {
+				this.priority = ((Number) priority).intValue();
+			} else if (priority instanceof String) {
+				try {
+					this.priority = Integer.parseInt((String) priority);
+				} catch (NumberFormatException e) {
+					throw new ServletException(PROXY + "Invalid priority: " + priority);
+				}
+			}
+
+			if (className != null && methodName != null) {
+
+				LinkedHashMap<String, Object> paramsMap = (LinkedHashMap<String, Object>) requestMap.get("params");
+
+				if (paramsMap != null) {
+
+					int size = paramsMap.size();
+
+					classesList = new Class<?>[size];
+					paramsList = new Object[size];
+
+					int i = 0;
+					for (Entry<String, Object> set : paramsMap.entrySet()) {
+						System.out.println(PROXY + "Key: " + set.getKey());
+						Object obj = set.getValue();
+						System.out.println(PROXY + "Value: " + set.getValue() + " Type: " + obj.getClass());
+						classesList[i] = obj.getClass();
+						paramsList[i] = obj;
+						i++;
 					}
+
 				} else {
-					System.out.println(PROXY + "Class and/or operation not specified.");
-					throw new ServletException(PROXY + "Class and/or operation not specified.");
+					classesList = new Class<?>[0];
+					System.out.println(PROXY + "No parameter specified.");
 				}
 			} else {
-				System.out.println(PROXY + "Needed information not specified.");
-				throw new ServletException(PROXY + "Needed information not specified.");
+				System.out.println(PROXY + "Class and/or operation not specified.");
+				throw new ServletException(PROXY + "Class and/or operation not specified.");
 			}
-			return;
+		} else {
+			System.out.println(PROXY + "Needed information not specified.");
+			throw new ServletException(PROXY + "Needed information not specified.");
 		}
-		System.out.println(PROXY + "Invalid URI.");
-		throw new ServletException(PROXY + "Invalid URI.");
 	}
 
 	/**
@@ -117,17 +216,52 @@ public class PostRequest {
 	 * @throws ParseException
 	 */
 	public LinkedHashMap<String, LinkedHashMap<String, Object>> requestToMap(HttpServletRequest request)
-			throws IOException, ParseException {
+			throws ServletException, IOException, ParseException {
+
+		Object json = readBody(request);
+		if (!(json instanceof LinkedHashMap)) {
+			System.out.println(PROXY + "JSON object expected.");
+			throw new ServletException(PROXY + "JSON object expected.");
+		}
+		return (LinkedHashMap<String, LinkedHashMap<String, Object>>) json;
+	}
+
+	/**
+	 * 
+	 * Parses the JSON or, if the <tt>Content-Type</tt> is
+	 * <tt>application/cbor</tt>, CBOR body of a HttpServletRequest. Objects are
+	 * parsed to {@literal LinkedHashMap}s in order to keep the order of the
+	 * parameters. The body is parsed while it is read from the request, without
+	 * copying it into a string first. Bodies larger than the <tt>maxBodySize</tt>
+	 * attribute of the servlet context are rejected, by the
+	 * <tt>Content-Length</tt> before reading or while reading otherwise.
+	 * 
+	 * @param request
+	 * @return the parsed object or array
+	 * @throws RequestTooLargeException
+	 *             if the body is too large
+	 * @throws IOException
+	 * @throws ParseException
+	 */
+	public static Object readBody(HttpServletRequest request) throws IOException, ParseException {
+
+		Long maxBodySize = (Long) request.getServletContext().getAttribute("maxBodySize");
+		long limit = maxBodySize != null ? maxBodySize : DEFAULT_MAX_BODY_SIZE;
 
-		StringBuffer jb = new StringBuffer();
-		String json = null;
+		if (request.getContentLengthLong() > limit) {
+			System.out.println(PROXY + "Body exceeds " + limit + " bytes.");
+			throw new RequestTooLargeException(PROXY + "Body exceeds " + limit + " bytes.");
+		}
 
-		BufferedReader reader = request.getReader();
-		while ((json = reader.readLine()) != null) {
-			jb.append(json);
+		// Both formats are limited in bytes, before decoding
+		InputStream in = new LimitedInputStream(request.getInputStream(), limit);
+		if (WireFormat.fromContentType(request.getContentType()) == WireFormat.CBOR) {
+			return Cbor.decode(in);
 		}
 
-		json = jb.toString();
+		String charset = request.getCharacterEncoding();
+		Reader reader = new InputStreamReader(in, charset != null ? charset : SerializedResult.UTF_8.name());
+
 		ContainerFactory orderedKeyFactory = new ContainerFactory() {
 			public Map<String, LinkedHashMap<String, Object>> createObjectContainer() {
 				return new LinkedHashMap<String, LinkedHashMap<String, Object>>();
@@ -142,9 +276,47 @@ public class PostRequest {
 		};
 
 		JSONParser parser = new JSONParser();
-		Object obj = parser.parse(json, orderedKeyFactory);
+		return parser.parse(reader, orderedKeyFactory);
+	}
+
+	/**
+	 * InputStream that fails once more than the limit was read.
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+
+		private final long limit;
+		private long count;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.limit = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				count(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				count(n);
+			}
+			return n;
+		}
 
-		return (LinkedHashMap<String, LinkedHashMap<String, Object>>) obj;
+		private void count(int n) throws RequestTooLargeException {
+			count += n;
+			if (count > limit) {
+				System.out.println(PROXY + "Body exceeds " + limit + " bytes.");
+				throw new RequestTooLargeException(PROXY + "Body exceeds " + limit + " bytes.");
+			}
+		}
 	}
 
 	/**
@@ -175,6 +347,50 @@ public class PostRequest {
 		this.methodName = method;
 	}
 
+	/**
+	 * @return time in milliseconds the client is willing to wait for the
+	 *         result. <tt>0</tt> if the result should be polled.
+	 */
+	public long getWaitMillis() {
+		return waitMillis;
+	}
+
+	/**
+	 * @param waitMillis
+	 */
+	public void setWaitMillis(long waitMillis) {
+		this.waitMillis = waitMillis;
+	}
+
+	/**
+	 * @return encoding of the result accepted by the client
+	 */
+	public WireFormat getResultFormat() {
+		return resultFormat;
+	}
+
+	/**
+	 * @param resultFormat
+	 */
+	public void setResultFormat(WireFormat resultFormat) {
+		this.resultFormat = resultFormat;
+	}
+
+	/**
+	 * @return priority of the invocation, higher values are executed first.
+	 *         <tt>null</tt> if the default of the class should be used.
+	 */
+	public Integer getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @param priority
+	 */
+	public void setPriority(Integer priority) {
+		this.priority = priority;
+	}
+
 	/**
 	 * @return transfered parameter
 	 */
@@ -189,4 +405,41 @@ public class PostRequest {
 		return classesList;
 	}
 
+	/**
+	 * Identifies identical invocations. Parameters are compared by position
+	 * and value, the order of the fields of JSON objects is ignored.
+	 * 
+	 * @return class, operation and normalized parameters of the invocation
+	 */
+	public String getInvocationKey() {
+		if (invocationKey == null) {
+			List<Object> params = new ArrayList<Object>();
+			if (paramsList != null) {
+				for (Object param : paramsList) {
+					params.add(normalize(param));
+				}
+			}
+			invocationKey = className + "#" + methodName + JSONValue.toJSONString(params);
+		}
+		return invocationKey;
+	}
+
+	private static Object normalize(Object value) {
+		if (value instanceof Map) {
+			TreeMap<String, Object> sorted = new TreeMap<String, Object>();
+			for (Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				sorted.put(String.valueOf(entry.getKey()), normalize(entry.getValue()));
+			}
+			return sorted;
+		}
+		if (value instanceof List) {
+			List<Object> list = new ArrayList<Object>();
+			for (Object element : (List<?>) value) {
+				list.add(normalize(element));
+			}
+			return list;
+		}
+		return value;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,23 @@
+package appbus.proxy.model.requests;
+
+import java.io.IOException;
+
+/**
+ * 
+ * Thrown if the body of a request exceeds the maximum size accepted by the
+ * proxy.
+ * 
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class RequestTooLargeException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param message
+	 */
+	public RequestTooLargeException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,88 @@
+package appbus.proxy.model.resources;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 
+ * Map that manages the batches. BatchID is used as <tt>key</tt> of the map.
+ * The <tt>value</tt> of the map are the requestIDs of the invocations of the
+ * batch in the transfered order. A batch is removed once all its requests were
+ * removed from the {@link RequestTable}, e.g. because their results were
+ * evicted by the {@link RequestRetention} before the client fetched the batch.
+ * 
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class BatchMap {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private static final RequestTable table = new RequestTable();
+
+	private static ConcurrentHashMap<Long, Batch> batches = new ConcurrentHashMap<Long, Batch>();
+
+	/**
+	 * RequestIDs of a batch and the number of its requests still in the table.
+	 */
+	private static class Batch {
+		final long[] requestIDs;
+		final AtomicInteger remaining;
+
+		Batch(long[] requestIDs) {
+			this.requestIDs = requestIDs;
+			this.remaining = new AtomicInteger(requestIDs.length);
+		}
+	}
+
+	/**
+	 * @param id
+	 *            of the batch
+	 * @param requestIDs
+	 *            of the invocations of the batch, which must be in the table
+	 *            and not submitted yet
+	 */
+	public void put(long id, long[] requestIDs) {
+		batches.put(id, new Batch(requestIDs));
+		for (long requestID : requestIDs) {
+			table.get(requestID).setBatchID(id);
+		}
+	}
+
+	/**
+	 * @param id
+	 *            of the batch
+	 * @return requestIDs of the invocations of the batch. <tt>null</tt> if the
+	 *         batch is unknown.
+	 */
+	public long[] get(long id) {
+		Batch batch = batches.get(id);
+		return batch != null ? batch.requestIDs : null;
+	}
+
+	/**
+	 * Removes the entry with the specified batchID from the map.
+	 * 
+	 * @param id
+	 *            of the batch
+	 */
+	public void remove(long id) {
+		batches.remove(id);
+	}
+
+	/**
+	 * Called by the table for every removed request of a batch. The batch is
+	 * removed with its last request and reported as expired afterwards.
+	 *
+	 * @param id
+	 *            of the batch
+	 */
+	static void removed(long id) {
+		Batch batch = batches.get(id);
+		if (batch != null && batch.remaining.decrementAndGet() == 0 && batches.remove(id, batch)) {
+			System.out.println(PROXY + "Evicting batch: " + id);
+			RequestRetention.expired(id);
+		}
+	}
+}
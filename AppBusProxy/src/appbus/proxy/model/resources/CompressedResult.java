@@ -0,0 +1,264 @@
+package appbus.proxy.model.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import appbus.proxy.encoding.WireFormat;
+
+/**
+ *
+ * Serialized result compressed by the worker. Results of at least the
+ * configured threshold are deflated once, when the invocation finishes. The
+ * raw deflate data is kept together with the checksums of both supported
+ * content codings, so it can be sent with <tt>Content-Encoding</tt>
+ * <tt>gzip</tt> or <tt>deflate</tt> by adding the respective header and
+ * trailer, without compressing it again. Clients that accept neither get the
+ * inflated result.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class CompressedResult {
+
+	/**
+	 * Content coding <tt>gzip</tt> (RFC 1952).
+	 */
+	public static final String GZIP = "gzip";
+
+	/**
+	 * Content coding <tt>deflate</tt>, the zlib format (RFC 1950).
+	 */
+	public static final String DEFLATE = "deflate";
+
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+	private static final byte[] ZLIB_HEADER = { 0x78, (byte) 0x9c };
+
+	private static volatile int threshold = 1024;
+
+	private static final AtomicLong compressedResults = new AtomicLong();
+	private static final AtomicLong uncompressedBytes = new AtomicLong();
+	private static final AtomicLong compressedBytes = new AtomicLong();
+
+	private final TieredResult data;
+	private final int length;
+	private final int crc32;
+	private final int adler32;
+	private final WireFormat format;
+
+	private CompressedResult(TieredResult data, int length, int crc32, int adler32, WireFormat format) {
+		this.data = data;
+		this.length = length;
+		this.crc32 = crc32;
+		this.adler32 = adler32;
+		this.format = format;
+	}
+
+	/**
+	 * @param threshold
+	 *            minimum size of a result in bytes to be compressed.
+	 *            <tt>0</tt> disables the compression.
+	 */
+	public static void configure(int threshold) {
+		CompressedResult.threshold = threshold;
+	}
+
+	/**
+	 * Compresses a serialized result, if it is large enough.
+	 *
+	 * @param body
+	 *            serialized by {@link SerializedResult}
+	 * @return the compressed result. <tt>null</tt> if the result is below the
+	 *         threshold or doesn't get smaller.
+	 */
+	public static CompressedResult of(byte[] body) {
+
+		int limit = threshold;
+		if (limit <= 0 || body.length < limit) {
+			return null;
+		}
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+		try {
+			deflater.setInput(body);
+			deflater.finish();
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+		} finally {
+			deflater.end();
+		}
+
+		if (out.size() + GZIP_HEADER.length + 8 >= body.length) {
+			return null;
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		Adler32 adler = new Adler32();
+		adler.update(body);
+
+		compressedResults.incrementAndGet();
+		uncompressedBytes.addAndGet(body.length);
+		compressedBytes.addAndGet(out.size());
+
+		return new CompressedResult(TieredResult.store(out.toByteArray()), body.length, (int) crc.getValue(), (int) adler.getValue(),
+				WireFormat.of(body));
+	}
+
+	/**
+	 * @param acceptEncoding
+	 *            <tt>Accept-Encoding</tt> header of a request
+	 * @return <tt>gzip</tt> or <tt>deflate</tt> if accepted by the client, in
+	 *         this order. Otherwise <tt>null</tt>
+	 */
+	public static String negotiate(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+
+		boolean deflate = false;
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.split(";");
+			String name = parts[0].trim().toLowerCase();
+			if (parts.length > 1 && parts[1].trim().matches("q=0(\\.0*)?")) {
+				continue;
+			}
+			if (name.equals(GZIP) || name.equals("*")) {
+				return GZIP;
+			}
+			if (name.equals(DEFLATE)) {
+				deflate = true;
+			}
+		}
+		return deflate ? DEFLATE : null;
+	}
+
+	/**
+	 * @param coding
+	 *            <tt>gzip</tt> or <tt>deflate</tt>
+	 * @return number of bytes written by {@link #writeTo(OutputStream, String)}
+	 */
+	public int getContentLength(String coding) {
+		if (GZIP.equals(coding)) {
+			return GZIP_HEADER.length + data.length() + 8;
+		}
+		return ZLIB_HEADER.length + data.length() + 4;
+	}
+
+	/**
+	 * Writes the result in the specified content coding.
+	 *
+	 * @param out
+	 *            stream of the response
+	 * @param coding
+	 *            <tt>gzip</tt> or <tt>deflate</tt>
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out, String coding) throws IOException {
+		if (GZIP.equals(coding)) {
+			out.write(GZIP_HEADER);
+			data.writeTo(out);
+			writeIntLittleEndian(crc32, out);
+			writeIntLittleEndian(length, out);
+		} else {
+			out.write(ZLIB_HEADER);
+			data.writeTo(out);
+			out.write(adler32 >>> 24);
+			out.write(adler32 >>> 16);
+			out.write(adler32 >>> 8);
+			out.write(adler32);
+		}
+	}
+
+	/**
+	 * @return the serialized result
+	 */
+	public byte[] decompress() {
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(data.toByteArray());
+			byte[] body = new byte[length];
+			int offset = 0;
+			while (offset < length && !inflater.finished()) {
+				int n = inflater.inflate(body, offset, length - offset);
+				if (n == 0 && inflater.needsInput()) {
+					break;
+				}
+				offset += n;
+			}
+			if (offset != length) {
+				throw new IllegalStateException("Compressed result is truncated.");
+			}
+			return body;
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Compressed result is corrupt.", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * @return size of the compressed data
+	 */
+	public int getCompressedLength() {
+		return data.length();
+	}
+
+	/**
+	 * @return the compressed data
+	 */
+	public TieredResult getData() {
+		return data;
+	}
+
+	/**
+	 * @return size of the serialized result
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * @return encoding of the serialized result
+	 */
+	public WireFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return number of results compressed so far
+	 */
+	public static long getCompressedResults() {
+		return compressedResults.get();
+	}
+
+	/**
+	 * @return total size of the compressed results before compression
+	 */
+	public static long getUncompressedBytes() {
+		return uncompressedBytes.get();
+	}
+
+	/**
+	 * @return total size of the compressed results after compression
+	 */
+	public static long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+
+	private static void writeIntLittleEndian(int value, OutputStream out) throws IOException {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+}
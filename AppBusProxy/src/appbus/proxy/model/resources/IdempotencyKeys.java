@@ -0,0 +1,164 @@
+package appbus.proxy.model.resources;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Map that manages the idempotency keys of the clients. The key is used as
+ * <tt>key</tt> of the map, the requestID created for the first submission as
+ * <tt>value</tt>, together with a SHA-256 hash of its invocation. Repeated
+ * submissions of the same invocation with the same key are answered with this
+ * requestID instead of invoking the method again. A key reused for another
+ * invocation is detected by the hash.
+ *
+ * Keys are kept for a time-to-live and up to a maximum number. Expired keys are
+ * removed in the order they were registered, when new keys are registered.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class IdempotencyKeys {
+
+	private static volatile int maxEntries = 100000;
+	private static volatile long ttlMillis = TimeUnit.HOURS.toMillis(24);
+
+	private static final ConcurrentHashMap<String, Registration> keys = new ConcurrentHashMap<String, Registration>();
+	private static final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<Entry>();
+
+	/**
+	 * Request registered for a key.
+	 */
+	public static class Registration {
+		private final long id;
+		private final byte[] hash;
+
+		Registration(long id, byte[] hash) {
+			this.id = id;
+			this.hash = hash;
+		}
+
+		/**
+		 * @return requestID of the first submission
+		 */
+		public long getId() {
+			return id;
+		}
+
+		/**
+		 * @param invocationKey
+		 *            of a submission with the key
+		 * @return <tt>true</tt> if the submission has the same invocation as
+		 *         the first submission. Otherwise <tt>false</tt>
+		 */
+		public boolean matches(String invocationKey) {
+			return Arrays.equals(hash, hash(invocationKey));
+		}
+	}
+
+	/**
+	 * Registered key with the time it expires.
+	 */
+	private static class Entry {
+		final String key;
+		final Registration registration;
+		final long expiresAt;
+
+		Entry(String key, Registration registration, long expiresAt) {
+			this.key = key;
+			this.registration = registration;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * @param maxEntries
+	 *            maximum number of keys
+	 * @param ttlMillis
+	 *            time keys are kept
+	 */
+	public static void configure(int maxEntries, long ttlMillis) {
+		IdempotencyKeys.maxEntries = maxEntries;
+		IdempotencyKeys.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * @param key
+	 *            idempotency key of the client
+	 * @return the first submission. <tt>null</tt> if the key is unknown.
+	 */
+	public Registration get(String key) {
+		return keys.get(key);
+	}
+
+	/**
+	 * Registers the key for a new request, unless it was registered already.
+	 *
+	 * @param key
+	 *            idempotency key of the client
+	 * @param id
+	 *            of the new request
+	 * @param invocationKey
+	 *            invocation of the new request, see
+	 *            {@link appbus.proxy.model.requests.PostRequest#getInvocationKey()}
+	 * @return an earlier submission with the same key. <tt>null</tt> if the
+	 *         key was registered for the new request.
+	 */
+	public Registration putIfAbsent(String key, long id, String invocationKey) {
+		expire();
+
+		Registration registration = new Registration(id, hash(invocationKey));
+		Registration existing = keys.putIfAbsent(key, registration);
+		if (existing == null) {
+			order.add(new Entry(key, registration, System.currentTimeMillis() + ttlMillis));
+		}
+		return existing;
+	}
+
+	/**
+	 * Removes the key if it is still registered for the specified request,
+	 * e.g. because the request was rejected.
+	 *
+	 * @param key
+	 *            idempotency key of the client
+	 * @param id
+	 *            of the request
+	 */
+	public void remove(String key, long id) {
+		Registration registration = keys.get(key);
+		if (registration != null && registration.id == id) {
+			keys.remove(key, registration);
+		}
+	}
+
+	/**
+	 * @return number of registered keys
+	 */
+	public int size() {
+		return keys.size();
+	}
+
+	private static void expire() {
+		long now = System.currentTimeMillis();
+		Entry head;
+		while ((head = order.peek()) != null && (head.expiresAt <= now || keys.size() >= maxEntries)) {
+			if (order.remove(head)) {
+				keys.remove(head.key, head.registration);
+			}
+		}
+	}
+
+	private static byte[] hash(String invocationKey) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(invocationKey.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform supports SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+}
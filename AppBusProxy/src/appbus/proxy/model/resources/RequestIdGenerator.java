@@ -0,0 +1,172 @@
+package appbus.proxy.model.resources;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Generates the IDs of requests and batches. An ID consists of 64 bits:
+ *
+ * <pre>
+ * | 0 | epoch (31 bits) | node (10 bits) | sequence (22 bits) |
+ * </pre>
+ *
+ * The epoch is the second (since 2016-01-01) in which the sequence was
+ * started, the node identifies the proxy instance. If the sequence is
+ * exhausted, the next epoch is borrowed without waiting for the clock, up to
+ * {@value #MAX_BORROWED} epoch(s) ahead of it. Only if IDs are requested
+ * faster than that, the caller waits for the clock. An epoch is never reused
+ * by the same node, because the epochs are ascending, and the first epoch of
+ * a proxy is taken by {@link #init(int)} after the epochs a previous run could
+ * have borrowed have passed. Therefore IDs don't collide across restarts or
+ * across proxies with different nodes, as long as the clock doesn't go
+ * backwards.
+ *
+ * Within an epoch IDs are ascending, so the lower bits can be used as index by
+ * the {@link RequestTable}.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class RequestIdGenerator {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private static final int SEQUENCE_BITS = 22;
+	private static final int NODE_BITS = 10;
+	private static final int EPOCH_BITS = 31;
+
+	/**
+	 * Maximum node number.
+	 */
+	public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+	private static final long EPOCH_MASK = (1L << EPOCH_BITS) - 1;
+
+	// 2016-01-01T00:00:00Z
+	private static final long EPOCH_OFFSET = 1451606400L;
+
+	// Epochs the sequence may run ahead of the clock
+	private static final int MAX_BORROWED = 1;
+
+	private static volatile int node = defaultNode();
+
+	// Negative until the first epoch was taken
+	private static final AtomicLong nextID = new AtomicLong(-1);
+
+	/**
+	 * Sets the node of this proxy and takes the first epoch. Waits up to
+	 * {@value #MAX_BORROWED} + 1 seconds, so it should be called on startup
+	 * and not by a request.
+	 *
+	 * @param node
+	 *            between <tt>0</tt> and {@value #MAX_NODE}
+	 */
+	public static void init(int node) {
+		if (node < 0 || node > MAX_NODE) {
+			throw new IllegalArgumentException(PROXY + "Node must be between 0 and " + MAX_NODE + ": " + node);
+		}
+		RequestIdGenerator.node = node;
+
+		// Epochs borrowed by a previous run have passed
+		nextID.set(compose(awaitEpoch(currentEpoch() + MAX_BORROWED), node, 0));
+		System.out.println(PROXY + "Request IDs of node " + node + " start at " + nextID.get());
+	}
+
+	/**
+	 * @return next unique ID
+	 */
+	public static long next() {
+		for (;;) {
+			long id = nextID.get();
+			if (id < 0) {
+				start();
+				continue;
+			}
+
+			long following;
+			if ((id & SEQUENCE_MASK) != SEQUENCE_MASK) {
+				following = id + 1;
+			} else {
+				long epoch = Math.max(epochOf(id) + 1, currentEpoch());
+				if (epoch > currentEpoch() + MAX_BORROWED) {
+					// IDs are requested faster than the sequence allows
+					awaitEpoch(epoch - MAX_BORROWED - 1);
+				}
+				following = compose(epoch, node, 0);
+			}
+			if (nextID.compareAndSet(id, following)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Takes the first epoch, if {@link #init(int)} was not called on startup.
+	 */
+	private static synchronized void start() {
+		if (nextID.get() < 0) {
+			init(node);
+		}
+	}
+
+	/**
+	 * @return node of this proxy
+	 */
+	public static int getNode() {
+		return node;
+	}
+
+	/**
+	 * @param id
+	 * @return node that generated the ID
+	 */
+	public static int nodeOf(long id) {
+		return (int) (id >>> SEQUENCE_BITS) & MAX_NODE;
+	}
+
+	private static long epochOf(long id) {
+		return (id >>> (SEQUENCE_BITS + NODE_BITS)) & EPOCH_MASK;
+	}
+
+	private static long compose(long epoch, int node, long sequence) {
+		return (epoch << (SEQUENCE_BITS + NODE_BITS)) | ((long) node << SEQUENCE_BITS) | sequence;
+	}
+
+	private static long currentEpoch() {
+		return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - EPOCH_OFFSET;
+	}
+
+	/**
+	 * Waits until the clock has passed the specified epoch.
+	 *
+	 * @return new epoch
+	 */
+	private static long awaitEpoch(long previous) {
+		long epoch;
+		while ((epoch = currentEpoch()) <= previous) {
+			try {
+				Thread.sleep(1000 - System.currentTimeMillis() % 1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(PROXY + "Interrupted while waiting for a new epoch.", e);
+			}
+		}
+		return epoch;
+	}
+
+	/**
+	 * Derives the node from the host name, if no node is configured.
+	 */
+	private static int defaultNode() {
+		try {
+			return InetAddress.getLocalHost().getHostName().hashCode() & MAX_NODE;
+		} catch (UnknownHostException e) {
+			return 0;
+		}
+	}
+}
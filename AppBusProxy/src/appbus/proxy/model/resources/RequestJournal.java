@@ -0,0 +1,713 @@
+package appbus.proxy.model.resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import javax.servlet.ServletException;
+
+import appbus.proxy.encoding.Cbor;
+import appbus.proxy.encoding.WireFormat;
+import appbus.proxy.model.requests.PostRequest;
+
+/**
+ *
+ * Optional journal of the requests in the {@link RequestTable}, so finished
+ * invocations survive a restart of the proxy. The journal is a memory-mapped
+ * file to which the lifecycle events of the requests are appended: the
+ * invocation when a request is <tt>QUEUED</tt>, the serialized result when it
+ * <tt>SUCCEEDED</tt>, the final state if it failed, timed out or was cancelled
+ * and <tt>DELIVERED</tt> once it was removed from the table. Every event is
+ * written as
+ *
+ * <pre>
+ * | length (4 bytes) | CRC-32 (4 bytes) | state (1 byte) | requestID (8 bytes) | data |
+ * </pre>
+ *
+ * so an event torn by a crash is detected and ends the journal.
+ *
+ * Appends reserve the position of their event by compare-and-set and write it
+ * concurrently. If the journal is full, the file is mapped again with twice
+ * the size.
+ *
+ * Events of removed requests are dropped by compaction, which copies the
+ * events of the remaining requests to a new file and replaces the journal
+ * atomically. Compaction runs in the background if more than half of the
+ * journal is garbage, periodically and after the journal grew. Appends are only
+ * blocked while the events appended during the copy are copied as well.
+ *
+ * On startup the journal is replayed by {@link #open(File, int, long)}.
+ * Finished requests are restored with their results, requests that were
+ * queued or running are returned to the caller, who decides whether they are
+ * invoked again.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class RequestJournal {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	// "ABJ1"
+	private static final int MAGIC = 0x41424a31;
+	private static final int HEADER = 4;
+
+	// length and CRC-32 of an event
+	private static final int EVENT_HEADER = 8;
+
+	// state and requestID of an event
+	private static final int EVENT_KEY = 9;
+
+	private static final RequestTable table = new RequestTable();
+	private static final RequestRetention retention = new RequestRetention();
+
+	// Appends share the read lock, replacing the mapping takes the write lock
+	private static final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Held while the journal is opened, compacted or closed
+	private static final Object compaction = new Object();
+
+	private static volatile File file;
+	private static volatile MappedByteBuffer buffer;
+
+	// End of the events, advanced by compare-and-set to reserve an event
+	private static final AtomicInteger position = new AtomicInteger();
+
+	// Positions of the QUEUED and the final event of each request in the
+	// journal. The arrays are replaced, not modified.
+	private static final ConcurrentHashMap<Long, int[]> index = new ConcurrentHashMap<Long, int[]>();
+	private static final AtomicLong liveBytes = new AtomicLong();
+
+	private static volatile ScheduledExecutorService compactor;
+
+	/**
+	 * Opens the journal and restores the requests. Finished requests are
+	 * inserted into the table in their final state. Requests that were queued
+	 * or running are inserted as <tt>QUEUED</tt>.
+	 *
+	 * @param journalFile
+	 *            file of the journal, created if it doesn't exist
+	 * @param capacity
+	 *            initial size of the file in bytes
+	 * @param compactionMillis
+	 *            interval in which the journal is compacted if necessary
+	 * @return the requests that were interrupted with their invocations. They
+	 *         have to be invoked again or failed by the caller.
+	 * @throws IOException
+	 *             if the journal can't be read or written
+	 */
+	public static Map<RequestRecord, PostRequest> open(File journalFile, int capacity, long compactionMillis)
+			throws IOException {
+
+		synchronized (compaction) {
+			try {
+				file = journalFile;
+				MappedByteBuffer mapped = map(file, Math.max(capacity, HEADER + EVENT_HEADER));
+				if (mapped.getInt(0) != MAGIC) {
+					if (mapped.getInt(0) != 0) {
+						throw new IOException(PROXY + "Not a request journal: " + file);
+					}
+					mapped.putInt(0, MAGIC);
+				}
+				buffer = mapped;
+				scan();
+				compact(0);
+			} catch (IOException | RuntimeException e) {
+				close();
+				throw e;
+			}
+
+			Map<RequestRecord, PostRequest> interrupted = restore();
+			System.out.println(PROXY + "Journal " + file + " restored " + index.size() + " request(s), "
+					+ interrupted.size() + " of them interrupted.");
+
+			startCompactor(compactionMillis);
+			return interrupted;
+		}
+	}
+
+	/**
+	 * Flushes and closes the journal. Waits for a running compaction.
+	 */
+	public static void close() {
+		synchronized (compaction) {
+			if (compactor != null) {
+				compactor.shutdownNow();
+				compactor = null;
+			}
+			lock.writeLock().lock();
+			try {
+				if (buffer != null) {
+					buffer.force();
+					buffer = null;
+					index.clear();
+					liveBytes.set(0);
+					position.set(0);
+				}
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return <tt>true</tt> if a journal is open. Otherwise <tt>false</tt>
+	 */
+	public static boolean isOpen() {
+		return buffer != null;
+	}
+
+	/**
+	 * Appends the invocation of a new request and the outcome once it
+	 * finished. Does nothing if no journal is open.
+	 *
+	 * @param record
+	 *            of the request, not finished yet
+	 * @param postRequest
+	 *            invocation of the request
+	 */
+	public static void track(RequestRecord record, PostRequest postRequest) {
+		if (!isOpen()) {
+			return;
+		}
+
+		Map<String, Object> invocation = postRequest.toMap();
+		invocation.put("result-format", postRequest.getResultFormat().name());
+		append(RequestState.QUEUED, record.getId(), Cbor.encode(invocation));
+		watch(record);
+	}
+
+	/**
+	 * Appends that a request was removed from the table.
+	 *
+	 * @param id
+	 *            of the request
+	 */
+	static void removed(long id) {
+		if (!isOpen()) {
+			return;
+		}
+
+		lock.readLock().lock();
+		try {
+			MappedByteBuffer current = buffer;
+			int[] positions = current != null ? index.remove(id) : null;
+			if (positions == null) {
+				// Request isn't journaled
+				return;
+			}
+			liveBytes.addAndGet(-eventSizes(current, positions));
+		} finally {
+			lock.readLock().unlock();
+		}
+		append(RequestState.DELIVERED, id, new byte[0]);
+	}
+
+	/**
+	 * @return size of the journal in bytes
+	 */
+	public static int size() {
+		return buffer != null ? position.get() : 0;
+	}
+
+	/**
+	 * @return size of the events of requests still in the table
+	 */
+	public static long getLiveBytes() {
+		return liveBytes.get();
+	}
+
+	private static void watch(final RequestRecord record) {
+		record.addFinishedListener(new Runnable() {
+			@Override
+			public void run() {
+				RequestState state = record.getState();
+				if (state == RequestState.SUCCEEDED) {
+					byte[] body = record.getResult();
+					if (body != null) {
+						append(state, record.getId(), body);
+					}
+				} else if (state != RequestState.DELIVERED) {
+					append(state, record.getId(), new byte[0]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Appends an event. Its position is reserved by compare-and-set, so events
+	 * are written concurrently. Extends the journal if it is full.
+	 */
+	private static void append(RequestState state, long id, byte[] data) {
+
+		long size = (long) EVENT_HEADER + EVENT_KEY + data.length;
+		while (true) {
+			lock.readLock().lock();
+			try {
+				MappedByteBuffer target = buffer;
+				if (target == null) {
+					return;
+				}
+
+				int[] positions = index.get(id);
+				if (state != RequestState.QUEUED && state != RequestState.DELIVERED && positions == null) {
+					// Request isn't journaled or was already removed
+					return;
+				}
+
+				int at = reserve(target.capacity(), size);
+				if (at >= 0) {
+					write(target, at, state, id, data);
+					if (state == RequestState.QUEUED) {
+						index.put(id, new int[] { at, -1 });
+						liveBytes.addAndGet(size);
+					} else if (state != RequestState.DELIVERED
+							&& index.replace(id, positions, new int[] { positions[0], at })) {
+						liveBytes.addAndGet(size);
+					}
+					return;
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+
+			if (!extend(size)) {
+				System.out.println(PROXY + "Request " + id + " not journaled.");
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return position of the reserved event. <tt>-1</tt> if it doesn't fit.
+	 */
+	private static int reserve(int capacity, long size) {
+		int at;
+		do {
+			at = position.get();
+			if (at + size > capacity) {
+				return -1;
+			}
+		} while (!position.compareAndSet(at, (int) (at + size)));
+		return at;
+	}
+
+	/**
+	 * Writes an event at the specified position.
+	 */
+	private static void write(ByteBuffer target, int at, RequestState state, long id, byte[] data) {
+
+		ByteBuffer key = ByteBuffer.allocate(EVENT_KEY);
+		key.put((byte) state.ordinal()).putLong(id);
+		CRC32 crc = new CRC32();
+		crc.update(key.array());
+		crc.update(data);
+
+		ByteBuffer event = target.duplicate();
+		event.position(at + 4);
+		event.putInt((int) crc.getValue());
+		event.put(key.array());
+		event.put(data);
+
+		// The length is written last, so a torn event is never read
+		target.putInt(at, EVENT_KEY + data.length);
+	}
+
+	/**
+	 * Makes room for an event that doesn't fit. The file is mapped again with
+	 * twice the size, which doesn't copy the events, and compacted in the
+	 * background. Only if the journal reached its maximum size, it is
+	 * compacted right away.
+	 *
+	 * @return <tt>false</tt> if the event doesn't fit even after compaction
+	 */
+	private static boolean extend(long size) {
+
+		lock.writeLock().lock();
+		try {
+			MappedByteBuffer current = buffer;
+			if (current == null) {
+				return false;
+			}
+			long needed = position.get() + size;
+			if (needed <= current.capacity()) {
+				// Extended by another thread
+				return true;
+			}
+			if (needed <= Integer.MAX_VALUE) {
+				long capacity = current.capacity();
+				while (capacity < needed) {
+					capacity = Math.min(Integer.MAX_VALUE, capacity * 2);
+				}
+				try {
+					buffer = map(file, (int) capacity);
+				} catch (IOException e) {
+					System.out.println(PROXY + "Journal can't be extended: " + e.getMessage());
+					return false;
+				}
+				ScheduledExecutorService background = compactor;
+				if (background != null) {
+					background.execute(new Runnable() {
+						@Override
+						public void run() {
+							compactIfWasteful();
+						}
+					});
+				}
+				return true;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		try {
+			compact(size);
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println(PROXY + "Journal can't be extended: " + e.getMessage());
+			return false;
+		}
+		MappedByteBuffer current = buffer;
+		return current != null && position.get() + size <= current.capacity();
+	}
+
+	/**
+	 * Reads the events of the journal and builds the index. Stops at the first
+	 * event that is incomplete or corrupt.
+	 */
+	private static void scan() {
+
+		index.clear();
+		int end = HEADER;
+
+		RequestState[] states = RequestState.values();
+		while (buffer.capacity() - end >= EVENT_HEADER + EVENT_KEY) {
+
+			int length = buffer.getInt(end);
+			if (length < EVENT_KEY || length > buffer.capacity() - end - EVENT_HEADER) {
+				break;
+			}
+
+			byte[] event = new byte[length];
+			ByteBuffer source = buffer.duplicate();
+			source.position(end + EVENT_HEADER);
+			source.get(event);
+			CRC32 crc = new CRC32();
+			crc.update(event);
+			if ((int) crc.getValue() != buffer.getInt(end + 4) || event[0] < 0 || event[0] >= states.length) {
+				System.out.println(PROXY + "Journal ends with a corrupt event at " + end + ".");
+				break;
+			}
+
+			RequestState state = states[event[0]];
+			long id = ByteBuffer.wrap(event, 1, 8).getLong();
+			int[] positions = index.get(id);
+
+			if (state == RequestState.QUEUED) {
+				index.put(id, new int[] { end, -1 });
+			} else if (state == RequestState.DELIVERED) {
+				index.remove(id);
+			} else if (positions != null) {
+				index.put(id, new int[] { positions[0], end });
+			}
+			end += EVENT_HEADER + length;
+		}
+		position.set(end);
+
+		long live = 0;
+		for (int[] positions : index.values()) {
+			live += eventSizes(buffer, positions);
+		}
+		liveBytes.set(live);
+	}
+
+	private static void compactIfWasteful() {
+		MappedByteBuffer current = buffer;
+		int end = position.get();
+		if (current != null && end - HEADER > 2 * liveBytes.get() && end > current.capacity() / 4) {
+			try {
+				compact(0);
+			} catch (IOException | RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Copies the events of the requests in the index to a new file, which
+	 * replaces the journal. The new file has room for at least the specified
+	 * number of bytes. The events are copied while appends go on. Appends are
+	 * only blocked to copy the events appended in the meantime and to replace
+	 * the journal.
+	 */
+	private static void compact(long free) throws IOException {
+
+		synchronized (compaction) {
+
+			// Events before the end are complete, as no append holds the lock
+			MappedByteBuffer source;
+			int end;
+			lock.writeLock().lock();
+			try {
+				source = buffer;
+				end = position.get();
+			} finally {
+				lock.writeLock().unlock();
+			}
+			if (source == null) {
+				return;
+			}
+
+			long needed = HEADER + liveBytes.get() + free;
+			long capacity = source.capacity();
+			while (capacity < 2 * needed && capacity < Integer.MAX_VALUE) {
+				capacity = Math.min(Integer.MAX_VALUE, capacity * 2);
+			}
+			if (needed > capacity) {
+				throw new IllegalArgumentException("Event exceeds the maximum size of the journal.");
+			}
+
+			File compacted = new File(file.getPath() + ".compact");
+			MappedByteBuffer target;
+			try (RandomAccessFile raf = new RandomAccessFile(compacted, "rw")) {
+				raf.setLength(0);
+				raf.setLength(capacity);
+				target = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			}
+			target.putInt(MAGIC);
+
+			// Copies the events before the end without blocking appends
+			Map<Integer, Integer> moved = new HashMap<Integer, Integer>();
+			Set<Long> copied = new HashSet<Long>();
+			for (Map.Entry<Long, int[]> entry : index.entrySet()) {
+				for (int at : entry.getValue()) {
+					if (at >= 0 && at < end && !moved.containsKey(at)) {
+						moved.put(at, copy(source, at, target));
+					}
+				}
+				copied.add(entry.getKey());
+			}
+			target.force();
+
+			lock.writeLock().lock();
+			try {
+				MappedByteBuffer current = buffer;
+				if (current == null) {
+					return;
+				}
+
+				long tail = (long) position.get() - end + (long) copied.size() * (EVENT_HEADER + EVENT_KEY);
+				if (target.position() + tail > target.capacity()) {
+					System.out.println(PROXY + "Journal grew during compaction, compacted later.");
+					return;
+				}
+
+				// Events appended in the meantime
+				Map<Long, int[]> relocated = new HashMap<Long, int[]>();
+				long live = 0;
+				for (Map.Entry<Long, int[]> entry : index.entrySet()) {
+					int[] positions = entry.getValue();
+					int[] newPositions = { -1, -1 };
+					for (int i = 0; i < positions.length; i++) {
+						if (positions[i] >= 0) {
+							Integer at = moved.get(positions[i]);
+							newPositions[i] = at != null ? at : copy(current, positions[i], target);
+							live += eventSize(current, positions[i]);
+						}
+					}
+					relocated.put(entry.getKey(), newPositions);
+				}
+
+				// Requests removed after their events were copied
+				for (Long id : copied) {
+					if (!relocated.containsKey(id)) {
+						int at = target.position();
+						write(target, at, RequestState.DELIVERED, id, new byte[0]);
+						target.position(at + EVENT_HEADER + EVENT_KEY);
+					}
+				}
+				target.force();
+
+				Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+
+				int before = position.get();
+				buffer = target;
+				position.set(target.position());
+				index.putAll(relocated);
+				liveBytes.set(live);
+				System.out.println(PROXY + "Journal compacted from " + before + " to " + target.position() + " bytes.");
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Copies an event to the current position of the target.
+	 *
+	 * @return position of the copy
+	 */
+	private static int copy(ByteBuffer source, int at, ByteBuffer target) {
+		ByteBuffer event = source.duplicate();
+		event.limit(at + eventSize(source, at)).position(at);
+		int to = target.position();
+		target.put(event);
+		return to;
+	}
+
+	/**
+	 * Inserts the requests of the index into the table in the order they were
+	 * journaled.
+	 */
+	private static Map<RequestRecord, PostRequest> restore() throws IOException {
+
+		Map<RequestRecord, PostRequest> interrupted = new LinkedHashMap<RequestRecord, PostRequest>();
+		RequestState[] states = RequestState.values();
+
+		List<Map.Entry<Long, int[]>> entries = new ArrayList<Map.Entry<Long, int[]>>(index.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<Long, int[]>>() {
+			@Override
+			public int compare(Map.Entry<Long, int[]> a, Map.Entry<Long, int[]> b) {
+				return Integer.compare(a.getValue()[0], b.getValue()[0]);
+			}
+		});
+
+		for (Map.Entry<Long, int[]> entry : entries) {
+			long id = entry.getKey();
+			int[] positions = entry.getValue();
+
+			if (positions[1] < 0) {
+				PostRequest postRequest;
+				try {
+					postRequest = readInvocation(positions[0]);
+				} catch (ServletException | IOException | RuntimeException e) {
+					System.out.println(PROXY + "Invocation of request " + id + " not restored: " + e.getMessage());
+					continue;
+				}
+				RequestRecord record = table.create(id);
+				record.setRequestedFormat(postRequest.getResultFormat());
+				watch(record);
+				interrupted.put(record, postRequest);
+				continue;
+			}
+
+			RequestRecord record = table.create(id);
+			record.setRequestedFormat(readResultFormat(positions[0]));
+			RequestState state = states[buffer.get(positions[1] + EVENT_HEADER)];
+			if (state == RequestState.SUCCEEDED) {
+				record.complete(readData(positions[1]));
+			} else if (state == RequestState.FAILED) {
+				record.fail();
+			} else {
+				record.abort(state);
+			}
+			retention.finished(id);
+		}
+		return interrupted;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static PostRequest readInvocation(int at) throws ServletException, IOException {
+		Object invocation = Cbor.decode(new ByteArrayInputStream(readData(at)));
+		if (!(invocation instanceof Map)) {
+			throw new IOException("Invocation expected.");
+		}
+		Map<String, Object> invocationMap = (Map<String, Object>) invocation;
+		PostRequest postRequest = new PostRequest(invocationMap);
+		Object format = invocationMap.get("result-format");
+		if (format instanceof String) {
+			postRequest.setResultFormat(WireFormat.valueOf((String) format));
+		}
+		return postRequest;
+	}
+
+	/**
+	 * @return encoding the client negotiated for the result. <tt>null</tt> if
+	 *         it can't be read.
+	 */
+	private static WireFormat readResultFormat(int at) {
+		try {
+			return readInvocation(at).getResultFormat();
+		} catch (ServletException | IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static byte[] readData(int at) {
+		byte[] data = new byte[buffer.getInt(at) - EVENT_KEY];
+		ByteBuffer event = buffer.duplicate();
+		event.position(at + EVENT_HEADER + EVENT_KEY);
+		event.get(data);
+		return data;
+	}
+
+	private static int eventSize(ByteBuffer source, int at) {
+		return EVENT_HEADER + source.getInt(at);
+	}
+
+	private static int eventSizes(ByteBuffer source, int[] positions) {
+		return eventSize(source, positions[0]) + (positions[1] >= 0 ? eventSize(source, positions[1]) : 0);
+	}
+
+	/**
+	 * Maps the file with at least the specified size. Existing events are
+	 * kept.
+	 */
+	private static MappedByteBuffer map(File journalFile, int capacity) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+			long length = Math.max(raf.length(), capacity);
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException(PROXY + "Journal exceeds " + Integer.MAX_VALUE + " bytes: " + journalFile);
+			}
+			raf.setLength(length);
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+		}
+	}
+
+	private static void startCompactor(long compactionMillis) {
+		if (compactionMillis <= 0) {
+			return;
+		}
+
+		compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "AppBusProxy-Journal");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		compactor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				compactIfWasteful();
+			}
+		}, compactionMillis, compactionMillis, TimeUnit.MILLISECONDS);
+	}
+}
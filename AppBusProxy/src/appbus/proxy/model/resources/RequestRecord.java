@@ -0,0 +1,453 @@
+package appbus.proxy.model.resources;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import appbus.proxy.encoding.WireFormat;
+
+/**
+ *
+ * State, result and timestamps of one request. State transitions are done by
+ * compare-and-set, so every reader sees either the state before or after a
+ * transition, and the result is always stored before the request becomes
+ * <tt>SUCCEEDED</tt>. Listeners can be registered to be notified when the
+ * invocation finishes.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class RequestRecord {
+
+	private static final AtomicReferenceFieldUpdater<RequestRecord, RequestState> STATE = AtomicReferenceFieldUpdater
+			.newUpdater(RequestRecord.class, RequestState.class, "state");
+
+	private final long id;
+	private final long createdAt;
+	private volatile long startedAt;
+	private volatile long finishedAt;
+	private volatile RequestState state = RequestState.QUEUED;
+	private volatile TieredResult result;
+	private volatile CompressedResult compressed;
+	private volatile WireFormat format;
+	private volatile WireFormat requestedFormat;
+	private volatile Long batchID;
+	private final AtomicInteger polls = new AtomicInteger();
+	private volatile int size;
+
+	// Hold of the table on the result and one per follower that hasn't adopted it yet
+	private final AtomicInteger holds = new AtomicInteger(1);
+
+	// 1 while counted as finished by the table, -1 after the removal
+	private final AtomicInteger counted = new AtomicInteger();
+
+	// Thread invoking the method, interrupted if the request is aborted
+	private Thread worker;
+	private volatile Future<?> deadline;
+
+	private final ConcurrentLinkedQueue<Runnable> listeners = new ConcurrentLinkedQueue<Runnable>();
+
+	RequestRecord(long id) {
+		this.id = id;
+		this.createdAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * QUEUED -> RUNNING
+	 *
+	 * @return <tt>false</tt> if the request was not queued
+	 */
+	public boolean start() {
+		synchronized (this) {
+			worker = Thread.currentThread();
+		}
+		if (STATE.compareAndSet(this, RequestState.QUEUED, RequestState.RUNNING)) {
+			startedAt = System.currentTimeMillis();
+			return true;
+		}
+		detach();
+		return false;
+	}
+
+	/**
+	 * Must be called by the worker after the invocation, so it isn't
+	 * interrupted anymore by an abort of this request. Clears an interrupt that
+	 * was meant for this request.
+	 */
+	public void detach() {
+		synchronized (this) {
+			worker = null;
+		}
+		Thread.interrupted();
+	}
+
+	/**
+	 * RUNNING -> SUCCEEDED. Notifies the listeners. A large result is
+	 * compressed before, on the thread of the worker.
+	 *
+	 * @param body
+	 *            serialized result of the invocation
+	 * @return <tt>false</tt> if the request was not running
+	 */
+	public boolean succeed(byte[] body) {
+		CompressedResult compressedBody = CompressedResult.of(body);
+		if (compressedBody != null) {
+			return store(null, compressedBody, compressedBody.getFormat(), RequestState.RUNNING);
+		}
+		return store(TieredResult.store(body), null, WireFormat.of(body), RequestState.RUNNING);
+	}
+
+	/**
+	 * Keeps the result of this request for a request sharing its invocation,
+	 * even if this request is removed from the table before the follower
+	 * {@link #adopt(RequestRecord) adopted} it.
+	 *
+	 * @return <tt>false</tt> if the result was already released
+	 */
+	public boolean follow() {
+		int count;
+		do {
+			count = holds.get();
+			if (count == 0) {
+				return false;
+			}
+		} while (!holds.compareAndSet(count, count + 1));
+		return true;
+	}
+
+	/**
+	 * QUEUED -> SUCCEEDED or FAILED, like the finished request whose
+	 * invocation this request shared. The result is shared as well. Notifies
+	 * the listeners. Must be called once for every successful
+	 * {@link #follow()} of the leader, even if this request is not queued
+	 * anymore.
+	 *
+	 * @param leader
+	 *            finished request that executed the invocation
+	 * @return <tt>false</tt> if the request was not queued
+	 */
+	public boolean adopt(RequestRecord leader) {
+		try {
+			TieredResult body = leader.result;
+			CompressedResult compressedBody = leader.compressed;
+			TieredResult shared = compressedBody != null ? compressedBody.getData() : body;
+			if (shared == null || !shared.share()) {
+				return STATE.compareAndSet(this, RequestState.QUEUED, RequestState.FAILED) && finished();
+			}
+			return store(body, compressedBody, leader.format, RequestState.QUEUED);
+		} finally {
+			leader.release();
+		}
+	}
+
+	/**
+	 * QUEUED -> SUCCEEDED without invoking the method, e.g. with a cached
+	 * result. Notifies the listeners.
+	 *
+	 * @param body
+	 *            serialized result of an identical invocation
+	 * @return <tt>false</tt> if the request was not queued
+	 */
+	public boolean complete(byte[] body) {
+		return store(TieredResult.store(body), null, WireFormat.of(body), RequestState.QUEUED);
+	}
+
+	/**
+	 * Stores the result, the compressed one if present, and sets the request
+	 * <tt>SUCCEEDED</tt>. The stored result is released if the request is not
+	 * in the expected state.
+	 */
+	private boolean store(TieredResult body, CompressedResult compressedBody, WireFormat bodyFormat,
+			RequestState expected) {
+		format = bodyFormat;
+		if (compressedBody != null) {
+			compressed = compressedBody;
+			size = compressedBody.getCompressedLength();
+		} else {
+			result = body;
+			size = body.length();
+		}
+		if (STATE.compareAndSet(this, expected, RequestState.SUCCEEDED) && finished()) {
+			RequestTable.retain(size);
+			return true;
+		}
+		discard();
+		return false;
+	}
+
+	/**
+	 * Releases the stored result, e.g. after the request was removed from the
+	 * table. Only called once by the table and once per follower, the result
+	 * is discarded by the last one.
+	 */
+	void release() {
+		if (holds.decrementAndGet() == 0) {
+			discard();
+		}
+	}
+
+	/**
+	 * @return <tt>false</tt> if the request was already counted or removed
+	 */
+	boolean countFinished() {
+		return counted.compareAndSet(0, 1);
+	}
+
+	/**
+	 * @return <tt>true</tt> if the request was counted as finished
+	 */
+	boolean uncount() {
+		return counted.getAndSet(-1) == 1;
+	}
+
+	private void discard() {
+		TieredResult body = result;
+		CompressedResult compressedBody = compressed;
+		result = null;
+		compressed = null;
+		size = 0;
+		if (compressedBody != null) {
+			compressedBody.getData().release();
+		} else if (body != null) {
+			body.release();
+		}
+	}
+
+	/**
+	 * QUEUED or RUNNING -> FAILED. Notifies the listeners.
+	 *
+	 * @return <tt>false</tt> if the request had already finished
+	 */
+	public boolean fail() {
+		return finish(RequestState.FAILED)
+				|| STATE.compareAndSet(this, RequestState.QUEUED, RequestState.FAILED) && finished();
+	}
+
+	/**
+	 * QUEUED or RUNNING -> TIMED_OUT or CANCELLED. A running invocation is
+	 * interrupted. Notifies the listeners.
+	 *
+	 * @param target
+	 *            <tt>TIMED_OUT</tt> or <tt>CANCELLED</tt>
+	 * @return <tt>false</tt> if the request had already finished
+	 */
+	public boolean abort(RequestState target) {
+		if (STATE.compareAndSet(this, RequestState.QUEUED, target)) {
+			return finished();
+		}
+		if (STATE.compareAndSet(this, RequestState.RUNNING, target)) {
+			synchronized (this) {
+				if (worker != null) {
+					worker.interrupt();
+				}
+			}
+			return finished();
+		}
+		return false;
+	}
+
+	/**
+	 * @param deadline
+	 *            scheduled timeout of the request, cancelled when the request
+	 *            finishes
+	 */
+	public void setDeadline(Future<?> deadline) {
+		this.deadline = deadline;
+		if (state.isFinished()) {
+			deadline.cancel(false);
+		}
+	}
+
+	private boolean finish(RequestState target) {
+		return STATE.compareAndSet(this, RequestState.RUNNING, target) && finished();
+	}
+
+	private boolean finished() {
+		finishedAt = System.currentTimeMillis();
+		Future<?> timeout = deadline;
+		if (timeout != null) {
+			timeout.cancel(false);
+		}
+		runListeners();
+		return true;
+	}
+
+	/**
+	 * SUCCEEDED, FAILED, TIMED_OUT or CANCELLED -> DELIVERED. Only one caller
+	 * can deliver the result of a request.
+	 *
+	 * @return the state before the transition. <tt>null</tt> if the request
+	 *         had not finished or was already delivered.
+	 */
+	public RequestState deliver() {
+		RequestState current = state;
+		if (current.isFinished() && current != RequestState.DELIVERED
+				&& STATE.compareAndSet(this, current, RequestState.DELIVERED)) {
+			return current;
+		}
+		return null;
+	}
+
+	/**
+	 * Registers a listener that is run by the thread finishing the invocation.
+	 * If the invocation has already finished, the listener is run immediately
+	 * by the calling thread.
+	 *
+	 * @param listener
+	 *            must be short and is run at most once
+	 */
+	public void addFinishedListener(Runnable listener) {
+		listeners.add(listener);
+
+		// Invocation could have finished in the meantime
+		if (state.isFinished()) {
+			runListeners();
+		}
+	}
+
+	/**
+	 * Removes a listener that is not needed anymore, e.g. after a timeout.
+	 *
+	 * @param listener
+	 */
+	public void removeFinishedListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+
+	private void runListeners() {
+		Runnable listener;
+		while ((listener = listeners.poll()) != null) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * @return requestID
+	 */
+	public long getId() {
+		return id;
+	}
+
+	/**
+	 * @return current state of the request
+	 */
+	public RequestState getState() {
+		return state;
+	}
+
+	/**
+	 * @return result of the invocation, serialized by
+	 *         {@link SerializedResult}. A compressed result is decompressed.
+	 *         <tt>null</tt> if the invocation has not succeeded.
+	 */
+	public byte[] getResult() {
+		CompressedResult compressedBody = compressed;
+		if (compressedBody != null) {
+			return compressedBody.decompress();
+		}
+		TieredResult body = result;
+		return body != null ? body.toByteArray() : null;
+	}
+
+	/**
+	 * @return result of the invocation, if it was not compressed. Otherwise
+	 *         <tt>null</tt>
+	 */
+	public TieredResult getStoredResult() {
+		return result;
+	}
+
+	/**
+	 * @return encoding of the result. <tt>null</tt> if the invocation has not
+	 *         succeeded.
+	 */
+	public WireFormat getResultFormat() {
+		return format;
+	}
+
+	/**
+	 * @param requestedFormat
+	 *            encoding the client negotiated for the result, used if it
+	 *            doesn't specify another one when fetching the result. The
+	 *            stored result can have another encoding if it was shared with
+	 *            another request.
+	 */
+	public void setRequestedFormat(WireFormat requestedFormat) {
+		this.requestedFormat = requestedFormat;
+	}
+
+	/**
+	 * @return encoding the client negotiated for the result. <tt>null</tt> if
+	 *         unknown.
+	 */
+	public WireFormat getRequestedFormat() {
+		return requestedFormat;
+	}
+
+	/**
+	 * @param batchID
+	 *            of the batch the request belongs to
+	 */
+	void setBatchID(Long batchID) {
+		this.batchID = batchID;
+	}
+
+	/**
+	 * @return ID of the batch the request belongs to. <tt>null</tt> if it
+	 *         was invoked on its own.
+	 */
+	public Long getBatchID() {
+		return batchID;
+	}
+
+	/**
+	 * @return result of the invocation, if it was compressed. Otherwise
+	 *         <tt>null</tt>
+	 */
+	public CompressedResult getCompressedResult() {
+		return compressed;
+	}
+
+	/**
+	 * Counts a status or result request of the client.
+	 */
+	public void polled() {
+		polls.incrementAndGet();
+	}
+
+	/**
+	 * @return number of status and result requests of the client
+	 */
+	public int getPolls() {
+		return polls.get();
+	}
+
+	/**
+	 * @return size of the retained result, compressed if possible
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return time the request was created
+	 */
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	/**
+	 * @return time the invocation started. <tt>0</tt> if not started yet.
+	 */
+	public long getStartedAt() {
+		return startedAt;
+	}
+
+	/**
+	 * @return time the invocation finished. <tt>0</tt> if not finished yet.
+	 */
+	public long getFinishedAt() {
+		return finishedAt;
+	}
+}
@@ -0,0 +1,236 @@
+package appbus.proxy.model.resources;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *
+ * Limits how long and how many finished invocations are kept in the
+ * {@link RequestTable} if the client never fetches the result. Finished
+ * invocations are appended to a FIFO in the order they finished, so the oldest
+ * entry is always at the head. A background sweeper removes entries from the
+ * head once their time-to-live elapsed. If the maximum number of entries or
+ * retained bytes is exceeded, the oldest entries are evicted right away.
+ *
+ * Entries of fetched results are dropped from the head whenever an invocation
+ * finishes. If the FIFO still grows beyond twice the maximum number of
+ * entries, e.g. behind a result that is never fetched, the entries of fetched
+ * results are dropped from the whole FIFO.
+ *
+ * The IDs of evicted requests and batches are remembered for another
+ * time-to-live, so they can be reported as <tt>EXPIRED</tt> instead of
+ * unknown.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class RequestRetention {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private static final RequestTable table = new RequestTable();
+
+	private static volatile int maxEntries = 10000;
+	private static volatile long maxBytes = 64L * 1024 * 1024;
+	private static volatile long ttlMillis = TimeUnit.MINUTES.toMillis(10);
+
+	private static final ConcurrentLinkedQueue<Entry> finished = new ConcurrentLinkedQueue<Entry>();
+	private static final AtomicInteger finishedSize = new AtomicInteger();
+	private static final AtomicBoolean purging = new AtomicBoolean();
+	private static final ConcurrentLinkedQueue<Entry> tombstoneOrder = new ConcurrentLinkedQueue<Entry>();
+	private static final ConcurrentHashMap<Long, Long> tombstones = new ConcurrentHashMap<Long, Long>();
+
+	private static ScheduledExecutorService sweeper;
+
+	/**
+	 * Finished invocation or evicted ID with the time it expires.
+	 */
+	private static class Entry {
+		final long id;
+		final long expiresAt;
+
+		Entry(long id, long expiresAt) {
+			this.id = id;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * @param maxEntries
+	 *            maximum number of finished requests in the table
+	 * @param maxBytes
+	 *            maximum size of all retained results
+	 * @param ttlMillis
+	 *            time finished invocations are kept
+	 */
+	public static void configure(int maxEntries, long maxBytes, long ttlMillis) {
+		RequestRetention.maxEntries = maxEntries;
+		RequestRetention.maxBytes = maxBytes;
+		RequestRetention.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Starts the background sweeper.
+	 */
+	public static synchronized void start() {
+		if (sweeper != null) {
+			return;
+		}
+
+		sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "AppBusProxy-Sweeper");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		long period = Math.max(100, Math.min(1000, ttlMillis / 10));
+		sweeper.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					sweep();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the background sweeper.
+	 */
+	public static synchronized void stop() {
+		if (sweeper != null) {
+			sweeper.shutdownNow();
+			sweeper = null;
+		}
+	}
+
+	/**
+	 * Registers a finished invocation. Evicts the oldest invocations if the
+	 * limits are exceeded.
+	 *
+	 * @param id
+	 *            of the request
+	 */
+	public void finished(long id) {
+		// Queued and running requests don't count against the limit
+		RequestRecord record = table.get(id);
+		if (record == null || !table.finished(record)) {
+			return;
+		}
+		finished.add(new Entry(id, System.currentTimeMillis() + ttlMillis));
+		finishedSize.incrementAndGet();
+
+		// Skip invocations whose result was already fetched
+		Entry head;
+		while ((head = finished.peek()) != null && table.get(head.id) == null && finished.remove(head)) {
+			finishedSize.decrementAndGet();
+		}
+		if (finishedSize.get() > 2 * Math.max(1, maxEntries)) {
+			purge();
+		}
+
+		while ((table.getFinished() > maxEntries || table.getRetainedBytes() > maxBytes) && evictHead()) {
+		}
+	}
+
+	/**
+	 * @param id
+	 *            of the request
+	 * @return <tt>true</tt> if the request was evicted before the client
+	 *         fetched the result. Otherwise <tt>false</tt>
+	 */
+	public boolean isExpired(long id) {
+		return tombstones.containsKey(id);
+	}
+
+	/**
+	 * Removes all entries whose time-to-live elapsed. Only the heads of the
+	 * FIFOs are inspected.
+	 */
+	static void sweep() {
+
+		long now = System.currentTimeMillis();
+
+		Entry head;
+		while ((head = finished.peek()) != null && head.expiresAt <= now) {
+			evictHead();
+		}
+
+		while ((head = tombstoneOrder.peek()) != null && (head.expiresAt <= now || tombstones.size() > maxEntries)) {
+			// Only the sweeper removes from this FIFO
+			tombstoneOrder.poll();
+			tombstones.remove(head.id, head.expiresAt);
+		}
+	}
+
+	/**
+	 * Evicts the oldest finished invocation, if it was not fetched yet.
+	 *
+	 * @return <tt>false</tt> if there is no finished invocation left
+	 */
+	private static boolean evictHead() {
+
+		Entry head = finished.poll();
+		if (head == null) {
+			return false;
+		}
+		finishedSize.decrementAndGet();
+
+		// Skip invocations whose result was already fetched
+		RequestRecord record = table.get(head.id);
+		if (record != null && record.deliver() != null) {
+			System.out.println(PROXY + "Evicting result of request: " + head.id);
+			table.remove(head.id);
+			expired(head.id);
+		}
+		return true;
+	}
+
+	/**
+	 * Remembers the ID of an evicted request or batch for another
+	 * time-to-live.
+	 *
+	 * @param id
+	 *            of the request or batch
+	 */
+	static void expired(long id) {
+		long expiresAt = System.currentTimeMillis() + ttlMillis;
+		tombstones.put(id, expiresAt);
+		tombstoneOrder.add(new Entry(id, expiresAt));
+	}
+
+	/**
+	 * Drops the entries of fetched results from the whole FIFO.
+	 */
+	private static void purge() {
+		if (!purging.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			int kept = 0;
+			for (Iterator<Entry> it = finished.iterator(); it.hasNext();) {
+				if (table.get(it.next().id) == null) {
+					it.remove();
+				} else {
+					kept++;
+				}
+			}
+			finishedSize.set(kept);
+		} finally {
+			purging.set(false);
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package appbus.proxy.model.resources;
+
+/**
+ *
+ * States of a request in the {@link RequestTable}. A request is created as
+ * <tt>QUEUED</tt>, is <tt>RUNNING</tt> while the method is invoked and ends as
+ * <tt>SUCCEEDED</tt> or <tt>FAILED</tt>. A queued or running request ends as
+ * <tt>TIMED_OUT</tt> if its deadline passed and as <tt>CANCELLED</tt> if the
+ * client cancelled it. Once the result was returned to the client (or
+ * evicted) the request is <tt>DELIVERED</tt>.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public enum RequestState {
+
+	QUEUED, RUNNING, SUCCEEDED, FAILED, TIMED_OUT, CANCELLED, DELIVERED;
+
+	/**
+	 * @return <tt>true</tt> if the invocation has finished. Otherwise
+	 *         <tt>false</tt>
+	 */
+	public boolean isFinished() {
+		return this != QUEUED && this != RUNNING;
+	}
+}
@@ -0,0 +1,152 @@
+package appbus.proxy.model.resources;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import appbus.proxy.metrics.ProxyMetrics;
+
+/**
+ *
+ * Table that manages all requests. Replaces the former queue and result maps,
+ * so the state and the result of a request are always read from the same
+ * {@link RequestRecord}.
+ *
+ * RequestIDs are handed out in ascending order. Therefore the lower bits of the
+ * requestID are used as index into a fixed array of slots, which are updated by
+ * compare-and-set without locking or boxing the key. Only if a slot is still
+ * occupied by an older request, e.g. a long running invocation, the record is
+ * stored in an overflow map.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class RequestTable {
+
+	// Number of slots, must be a power of two
+	private static final int CAPACITY = 1 << 14;
+	private static final int MASK = CAPACITY - 1;
+
+	private static final AtomicReferenceArray<RequestRecord> slots = new AtomicReferenceArray<RequestRecord>(CAPACITY);
+	private static final ConcurrentHashMap<Long, RequestRecord> overflow = new ConcurrentHashMap<Long, RequestRecord>();
+
+	private static final AtomicInteger size = new AtomicInteger();
+	private static final AtomicInteger finished = new AtomicInteger();
+	private static final AtomicLong retainedBytes = new AtomicLong();
+
+	/**
+	 * Inserts a new request in state <tt>QUEUED</tt>.
+	 *
+	 * @param id
+	 *            of the request
+	 * @return record of the request
+	 */
+	public RequestRecord create(long id) {
+		RequestRecord record = new RequestRecord(id);
+		if (!slots.compareAndSet(index(id), null, record)) {
+			overflow.put(id, record);
+		}
+		size.incrementAndGet();
+		return record;
+	}
+
+	/**
+	 * @param id
+	 *            of the request
+	 * @return record of the request. <tt>null</tt> if the requestID is
+	 *         unknown.
+	 */
+	public RequestRecord get(long id) {
+		RequestRecord record = slots.get(index(id));
+		if (record != null && record.getId() == id) {
+			return record;
+		}
+		return overflow.isEmpty() ? null : overflow.get(id);
+	}
+
+	/**
+	 * @param id
+	 *            of the request
+	 * @return current state of the request. <tt>null</tt> if the requestID is
+	 *         unknown.
+	 */
+	public RequestState getState(long id) {
+		RequestRecord record = get(id);
+		return record != null ? record.getState() : null;
+	}
+
+	/**
+	 * Removes the record with the specified requestID from the table and from
+	 * the {@link RequestJournal}. A batch is removed with its last request.
+	 *
+	 * @param id
+	 *            of the request
+	 */
+	public void remove(long id) {
+		int index = index(id);
+		RequestRecord record = slots.get(index);
+		if (record == null || record.getId() != id || !slots.compareAndSet(index, record, null)) {
+			record = overflow.isEmpty() ? null : overflow.remove(id);
+		}
+		if (record != null) {
+			size.decrementAndGet();
+			if (record.uncount()) {
+				finished.decrementAndGet();
+			}
+			retainedBytes.addAndGet(-record.getSize());
+			record.release();
+			RequestJournal.removed(id);
+			ProxyMetrics.removed(record.getPolls());
+			Long batchID = record.getBatchID();
+			if (batchID != null) {
+				BatchMap.removed(batchID);
+			}
+		}
+	}
+
+	/**
+	 * @return number of requests in the table
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Counts a finished request until it is removed from the table.
+	 *
+	 * @param record
+	 *            of the finished request
+	 * @return <tt>false</tt> if the request was already counted or removed
+	 */
+	boolean finished(RequestRecord record) {
+		if (record.countFinished()) {
+			finished.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of finished requests in the table, without the queued
+	 *         and running ones
+	 */
+	public int getFinished() {
+		return finished.get();
+	}
+
+	/**
+	 * @return size of all serialized results in the table
+	 */
+	public long getRetainedBytes() {
+		return retainedBytes.get();
+	}
+
+	static void retain(int bytes) {
+		retainedBytes.addAndGet(bytes);
+	}
+
+	private static int index(long id) {
+		return (int) id & MASK;
+	}
+}
@@ -1,58 +0,0 @@
-package appbus.proxy.model.resources;
-
-import java.util.concurrent.ConcurrentHashMap;
-import org.json.simple.JSONObject;
-
-/**
- * 
- * Map that manages the invocation results. RequestID is used as <tt>key</tt> of
- * the map. The <tt>value</tt> of the map is the result of the invocation. Or
- * <tt>null</tt> if the invocation failed.
- * 
- * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
- *
- */
-public class ResultMap {
-
-	private static ConcurrentHashMap<Integer, JSONObject> invocations = new ConcurrentHashMap<Integer, JSONObject>();
-
-	/**
-	 * @param id
-	 *            of the request
-	 * @param obj
-	 *            result of the invocation.
-	 */
-	public void put(Integer id, JSONObject obj) {
-		invocations.put(id, obj);
-	}
-
-	/**
-	 * @param id
-	 * @return result of the invocation. <tt>Void</tt> if the invoked method was
-	 *         of return type <tt>void</tt>. <tt>null</tt> if the invocation
-	 *         failed.
-	 */
-	public JSONObject get(Integer id) {
-		return invocations.get(id);
-	}
-
-	/**
-	 * @param id
-	 *            of the request
-	 * @return <tt>true</tt> if the map contains the specified requestID.
-	 *         Otherwise <tt>false</tt>
-	 */
-	public boolean containsID(Integer id) {
-		return invocations.containsKey(id);
-	}
-
-	/**
-	 * Removes the entry with the specified requestID from the map.
-	 * 
-	 * @param id
-	 *            of the request
-	 */
-	public void remove(Integer id) {
-		invocations.remove(id);
-	}
-}
@@ -0,0 +1,132 @@
+package appbus.proxy.model.resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+
+import org.json.simple.JSONAware;
+import org.json.simple.JSONStreamAware;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import appbus.proxy.encoding.Cbor;
+import appbus.proxy.encoding.WireFormat;
+
+/**
+ *
+ * Serializes the result of an invocation once, on the worker, into the body
+ * of the response:
+ *
+ * <pre>
+ * {"result":...}
+ * </pre>
+ *
+ * encoded as UTF-8 JSON or as CBOR, depending on the encoding negotiated by
+ * the client. The body is kept in the {@link RequestRecord} and copied to the
+ * response without encoding it again. Responses containing several results,
+ * e.g. of a batch, embed the serialized JSON value as is.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class SerializedResult {
+
+	/**
+	 * Encoding of the serialized results.
+	 */
+	public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String RESULT = "result";
+	private static final String PREFIX = "{\"" + RESULT + "\":";
+	private static final String SUFFIX = "}";
+
+	/**
+	 * @param returnValue
+	 *            of the invoked method. <tt>null</tt> for void methods.
+	 * @param format
+	 *            encoding of the body
+	 * @return the response body containing the result
+	 */
+	public static byte[] serialize(Object returnValue, WireFormat format) {
+		Object value = returnValue != null ? returnValue : "void";
+		if (format == WireFormat.CBOR) {
+			return Cbor.encode(Collections.singletonMap(RESULT, value));
+		}
+		return (PREFIX + JSONValue.toJSONString(value) + SUFFIX).getBytes(UTF_8);
+	}
+
+	/**
+	 * @param body
+	 *            serialized by {@link #serialize(Object, WireFormat)}
+	 * @return the result value, to be embedded into other JSON objects. JSON
+	 *         values are embedded without parsing them.
+	 * @throws IOException
+	 *             if the body can't be decoded
+	 */
+	public static Object valueOf(byte[] body) throws IOException {
+		if (WireFormat.of(body) == WireFormat.JSON) {
+			return new RawValue(body);
+		}
+		return decode(body).get(RESULT);
+	}
+
+	/**
+	 * @param body
+	 *            serialized by {@link #serialize(Object, WireFormat)}
+	 * @param format
+	 *            encoding accepted by the client
+	 * @return the body in the specified encoding. The body itself if it is
+	 *         encoded already.
+	 * @throws IOException
+	 *             if the body can't be decoded
+	 */
+	public static byte[] convert(byte[] body, WireFormat format) throws IOException {
+		if (WireFormat.of(body) == format) {
+			return body;
+		}
+		return serialize(decode(body).get(RESULT), format);
+	}
+
+	private static Map<?, ?> decode(byte[] body) throws IOException {
+		try {
+			if (WireFormat.of(body) == WireFormat.JSON) {
+				return (Map<?, ?>) new JSONParser().parse(new String(body, UTF_8));
+			}
+			return (Map<?, ?>) Cbor.decode(new ByteArrayInputStream(body));
+		} catch (ParseException | ClassCastException e) {
+			throw new IOException("Invalid result body.", e);
+		}
+	}
+
+	/**
+	 * Result value that is written as it was serialized.
+	 */
+	private static class RawValue implements JSONAware, JSONStreamAware {
+
+		private final byte[] body;
+
+		RawValue(byte[] body) {
+			this.body = body;
+		}
+
+		@Override
+		public String toJSONString() {
+			int offset = PREFIX.length();
+			return new String(body, offset, body.length - offset - SUFFIX.length(), UTF_8);
+		}
+
+		@Override
+		public void writeJSONString(Writer out) throws IOException {
+			out.write(toJSONString());
+		}
+
+		@Override
+		public String toString() {
+			return toJSONString();
+		}
+	}
+}
@@ -0,0 +1,388 @@
+package appbus.proxy.model.resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Serialized result retained until the client fetches it, stored in one of
+ * three tiers. Results below the spill threshold stay on the heap. Larger
+ * results are copied to direct buffers off the heap, as long as all direct
+ * buffers stay below <tt>offHeapMaxBytes</tt>, otherwise they are spilled to a
+ * file in the spill directory, as long as all files stay below
+ * <tt>spillMaxBytes</tt>. If both are full, the result stays on the heap.
+ * Thereby large results waiting to be polled don't fill the heap.
+ *
+ * Direct buffers are chunks of {@value #CHUNK} bytes, which are recycled once
+ * a result was released. They are only freed by the garbage collector, so
+ * allocating a new buffer for every result would exceed the limit until the
+ * garbage collector runs. With a pool, at most <tt>offHeapMaxBytes</tt> are
+ * allocated.
+ *
+ * Spilled results are sent to the client by <tt>FileChannel.transferTo</tt>.
+ * Results shared by several requests are counted and released when the last
+ * request was removed.
+ *
+ * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
+ *
+ */
+public class TieredResult {
+
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	private static final String SPILL_PREFIX = "appbus-";
+	private static final String SPILL_SUFFIX = ".result";
+
+	private static final int CHUNK = 64 * 1024;
+
+	/**
+	 * Storage of a result.
+	 */
+	public enum Tier {
+		HEAP, OFF_HEAP, FILE
+	}
+
+	private static volatile int spillThreshold = 1024 * 1024;
+	private static volatile long offHeapMaxBytes = 256L * 1024 * 1024;
+	private static volatile long spillMaxBytes = 1024L * 1024 * 1024;
+	private static volatile File spillDirectory = new File(System.getProperty("java.io.tmpdir"));
+
+	private static final AtomicLong offHeapBytes = new AtomicLong();
+	private static final AtomicLong spilledBytes = new AtomicLong();
+	private static final AtomicLong offHeapResults = new AtomicLong();
+	private static final AtomicLong spilledResults = new AtomicLong();
+	private static final AtomicLong spillFailures = new AtomicLong();
+
+	// Direct buffers of released results and the size of all direct buffers
+	private static final ConcurrentLinkedQueue<ByteBuffer> freeChunks = new ConcurrentLinkedQueue<ByteBuffer>();
+	private static final AtomicLong allocatedBytes = new AtomicLong();
+
+	private final Tier tier;
+	private final int length;
+	private final byte[] bytes;
+	private final ByteBuffer[] chunks;
+	private final Path path;
+
+	// Requests sharing the result
+	private final AtomicInteger references = new AtomicInteger(1);
+
+	private TieredResult(Tier tier, int length, byte[] bytes, ByteBuffer[] chunks, Path path) {
+		this.tier = tier;
+		this.length = length;
+		this.bytes = bytes;
+		this.chunks = chunks;
+		this.path = path;
+	}
+
+	/**
+	 * Sets the limits of the tiers. Removes files spilled by a previous run
+	 * from the spill directory.
+	 *
+	 * @param spillThreshold
+	 *            minimum size of a result in bytes to be stored off the heap.
+	 *            <tt>0</tt> keeps all results on the heap.
+	 * @param offHeapMaxBytes
+	 *            maximum size of all results in direct buffers
+	 * @param spillMaxBytes
+	 *            maximum size of all results in files
+	 * @param spillDirectory
+	 *            directory of the files, created if it doesn't exist
+	 */
+	public static void configure(int spillThreshold, long offHeapMaxBytes, long spillMaxBytes, File spillDirectory) {
+		TieredResult.spillThreshold = spillThreshold;
+		TieredResult.offHeapMaxBytes = offHeapMaxBytes;
+		TieredResult.spillMaxBytes = spillMaxBytes;
+		TieredResult.spillDirectory = spillDirectory;
+		allocatedBytes.addAndGet(-(long) freeChunks.size() * CHUNK);
+		freeChunks.clear();
+
+		if (spillThreshold <= 0 || spillMaxBytes <= 0) {
+			return;
+		}
+		try {
+			Files.createDirectories(spillDirectory.toPath());
+			try (DirectoryStream<Path> stale = Files.newDirectoryStream(spillDirectory.toPath(),
+					SPILL_PREFIX + "*" + SPILL_SUFFIX)) {
+				for (Path file : stale) {
+					Files.deleteIfExists(file);
+				}
+			}
+		} catch (IOException e) {
+			System.out.println(PROXY + "Can't prepare spill directory " + spillDirectory + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Stores a result in the first tier with enough space.
+	 *
+	 * @param body
+	 *            serialized result, not modified afterwards
+	 * @return the stored result
+	 */
+	public static TieredResult store(byte[] body) {
+
+		int threshold = spillThreshold;
+		if (threshold <= 0 || body.length < threshold) {
+			return new TieredResult(Tier.HEAP, body.length, body, null, null);
+		}
+
+		int count = (body.length + CHUNK - 1) / CHUNK;
+		if (reserve(offHeapBytes, (long) count * CHUNK, offHeapMaxBytes)) {
+			ByteBuffer[] direct = takeChunks(count);
+			if (direct != null) {
+				for (int i = 0; i < count; i++) {
+					direct[i].put(body, i * CHUNK, Math.min(CHUNK, body.length - i * CHUNK)).flip();
+				}
+				offHeapResults.incrementAndGet();
+				return new TieredResult(Tier.OFF_HEAP, body.length, null, direct, null);
+			}
+			offHeapBytes.addAndGet(-(long) count * CHUNK);
+		}
+
+		if (reserve(spilledBytes, body.length, spillMaxBytes)) {
+			Path file = null;
+			try {
+				file = Files.createTempFile(spillDirectory.toPath(), SPILL_PREFIX, SPILL_SUFFIX);
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+					ByteBuffer source = ByteBuffer.wrap(body);
+					while (source.hasRemaining()) {
+						channel.write(source);
+					}
+				}
+				spilledResults.incrementAndGet();
+				return new TieredResult(Tier.FILE, body.length, null, null, file);
+
+			} catch (IOException e) {
+				System.out.println(PROXY + "Can't spill result: " + e.getMessage());
+				spilledBytes.addAndGet(-body.length);
+				spillFailures.incrementAndGet();
+				if (file != null) {
+					try {
+						Files.deleteIfExists(file);
+					} catch (IOException ignore) {
+					}
+				}
+			}
+		}
+
+		return new TieredResult(Tier.HEAP, body.length, body, null, null);
+	}
+
+	/**
+	 * Takes recycled direct buffers or allocates new ones. The space of the
+	 * buffers must have been reserved.
+	 *
+	 * @return <tt>null</tt> if the buffers can't be allocated
+	 */
+	private static ByteBuffer[] takeChunks(int count) {
+		ByteBuffer[] taken = new ByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			taken[i] = freeChunks.poll();
+			if (taken[i] == null) {
+				try {
+					taken[i] = ByteBuffer.allocateDirect(CHUNK);
+					allocatedBytes.addAndGet(CHUNK);
+				} catch (OutOfMemoryError e) {
+					// -XX:MaxDirectMemorySize is below offHeapMaxBytes. Only
+					// the buffers allocated so far are used from now on.
+					long limit = allocatedBytes.get();
+					System.out.println(PROXY + "Can't allocate direct buffer, limiting results off the heap to "
+							+ limit + " bytes: " + e.getMessage());
+					offHeapMaxBytes = limit;
+					for (int j = 0; j < i; j++) {
+						recycle(taken[j]);
+					}
+					return null;
+				}
+			}
+		}
+		return taken;
+	}
+
+	private static void recycle(ByteBuffer chunk) {
+		chunk.clear();
+		freeChunks.add(chunk);
+	}
+
+	private static boolean reserve(AtomicLong used, long size, long max) {
+		long current;
+		do {
+			current = used.get();
+			if (current + size > max) {
+				return false;
+			}
+		} while (!used.compareAndSet(current, current + size));
+		return true;
+	}
+
+	/**
+	 * Registers another request using the result.
+	 *
+	 * @return <tt>false</tt> if the result was already released
+	 */
+	public boolean share() {
+		int count;
+		do {
+			count = references.get();
+			if (count == 0) {
+				return false;
+			}
+		} while (!references.compareAndSet(count, count + 1));
+		return true;
+	}
+
+	/**
+	 * Unregisters a request using the result. Frees the space of the result
+	 * once no request uses it anymore.
+	 */
+	public void release() {
+		if (references.decrementAndGet() != 0) {
+			return;
+		}
+
+		if (tier == Tier.OFF_HEAP) {
+			for (ByteBuffer chunk : chunks) {
+				recycle(chunk);
+			}
+			offHeapBytes.addAndGet(-(long) chunks.length * CHUNK);
+			offHeapResults.decrementAndGet();
+		} else if (tier == Tier.FILE) {
+			spilledBytes.addAndGet(-length);
+			spilledResults.decrementAndGet();
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException e) {
+				System.out.println(PROXY + "Can't delete spilled result " + path + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return the result. Results off the heap are copied.
+	 */
+	public byte[] toByteArray() {
+		if (tier == Tier.HEAP) {
+			return bytes;
+		}
+
+		// The buffers or the file must not be released while they are read
+		if (!share()) {
+			throw new IllegalStateException("Result was released.");
+		}
+		try {
+			if (tier == Tier.OFF_HEAP) {
+				byte[] copy = new byte[length];
+				for (int i = 0; i < chunks.length; i++) {
+					chunks[i].duplicate().get(copy, i * CHUNK, Math.min(CHUNK, length - i * CHUNK));
+				}
+				return copy;
+			}
+			return Files.readAllBytes(path);
+		} catch (IOException e) {
+			throw new IllegalStateException("Spilled result can't be read.", e);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * Writes the result to the response. Spilled results are transferred from
+	 * the file without copying them to the heap.
+	 *
+	 * @param out
+	 *            stream of the response
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		if (tier == Tier.HEAP) {
+			out.write(bytes);
+			return;
+		}
+
+		WritableByteChannel target = Channels.newChannel(out);
+		if (!share()) {
+			throw new IOException(PROXY + "Result was released.");
+		}
+		try {
+			if (tier == Tier.OFF_HEAP) {
+				for (ByteBuffer chunk : chunks) {
+					ByteBuffer source = chunk.duplicate();
+					while (source.hasRemaining()) {
+						target.write(source);
+					}
+				}
+				return;
+			}
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				long position = 0;
+				while (position < length) {
+					position += channel.transferTo(position, length - position, target);
+				}
+			}
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * @return size of the result
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * @return storage of the result
+	 */
+	public Tier getTier() {
+		return tier;
+	}
+
+	/**
+	 * @return size of the direct buffers used by results
+	 */
+	public static long getOffHeapBytes() {
+		return offHeapBytes.get();
+	}
+
+	/**
+	 * @return number of results in direct buffers
+	 */
+	public static long getOffHeapResults() {
+		return offHeapResults.get();
+	}
+
+	/**
+	 * @return size of all results in files
+	 */
+	public static long getSpilledBytes() {
+		return spilledBytes.get();
+	}
+
+	/**
+	 * @return number of results in files
+	 */
+	public static long getSpilledResults() {
+		return spilledResults.get();
+	}
+
+	/**
+	 * @return number of results that couldn't be written to a file
+	 */
+	public static long getSpillFailures() {
+		return spillFailures.get();
+	}
+}
@@ -1,10 +1,19 @@
 package appbus.proxy.servlet;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -15,16 +24,39 @@ import org.json.simple.JSONObject;
 import org.json.simple.parser.ParseException;
 
 import appbus.proxy.AppBusProxy;
+import appbus.proxy.config.ApplicationInterfacesProperties;
+import appbus.proxy.encoding.WireFormat;
+import appbus.proxy.execution.AdmissionControl;
+import appbus.proxy.execution.Bulkhead;
+import appbus.proxy.execution.Deadlines;
+import appbus.proxy.execution.SingleFlight;
+import appbus.proxy.invocation.ResultCache;
+import appbus.proxy.metrics.MetricsWriter;
+import appbus.proxy.metrics.ProxyMetrics;
+import appbus.proxy.model.requests.BatchRequest;
+import appbus.proxy.model.requests.CacheRequest;
 import appbus.proxy.model.requests.GetRequest;
+import appbus.proxy.model.requests.MetricsRequest;
 import appbus.proxy.model.requests.PostRequest;
-import appbus.proxy.model.resources.QueueMap;
-import appbus.proxy.model.resources.ResultMap;
+import appbus.proxy.model.requests.RequestTooLargeException;
+import appbus.proxy.model.resources.BatchMap;
+import appbus.proxy.model.resources.CompressedResult;
+import appbus.proxy.model.resources.IdempotencyKeys;
+import appbus.proxy.model.resources.RequestIdGenerator;
+import appbus.proxy.model.resources.RequestJournal;
+import appbus.proxy.model.resources.RequestRecord;
+import appbus.proxy.model.resources.RequestRetention;
+import appbus.proxy.model.resources.RequestState;
+import appbus.proxy.model.resources.RequestTable;
+import appbus.proxy.model.resources.SerializedResult;
+import appbus.proxy.model.resources.TieredResult;
 
 /**
  * 
  * HttpServlet supporting <tt>doPost</tt> method in order to invoke a specified
  * method. <tt>doGet</tt> method in order to poll if the invocation has finished
- * already and to request the result of the invocation.
+ * already, to request the result of the invocation and for the metrics of the
+ * proxy. <tt>doDelete</tt> method in order to cancel an invocation.
  * 
  * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
  *
@@ -37,15 +69,34 @@ public class AppBusProxyServlet extends HttpServlet {
 
 	private static final long serialVersionUID = 1L;
 
-	// MAX.VALUE: 2147483647. Could use BigInteger. But since this is a
-	// prototype this should work.
-	private static AtomicInteger incrementer = new AtomicInteger(0);
-	private static final QueueMap queue = new QueueMap();
-	private static final ResultMap results = new ResultMap();
+	private static final RequestTable table = new RequestTable();
+	private static final BatchMap batches = new BatchMap();
+	private static final RequestRetention retention = new RequestRetention();
+	private static final IdempotencyKeys idempotencyKeys = new IdempotencyKeys();
+
+	// Header for requesting the result directly. Value: wait time in ms.
+	private final static String WAIT_HEADER = "X-AppBus-Wait";
+
+	// Header for limiting the duration of an invocation. Value: timeout in ms.
+	private final static String TIMEOUT_HEADER = "X-AppBus-Timeout";
+
+	// Header for submitting an invocation only once. Value: key of the client.
+	private final static String IDEMPOTENCY_HEADER = "Idempotency-Key";
 
 	/**
 	 * 
 	 * For invoking a method. Supported URI: <tt>{@literal [/appInvoker]}</tt>.
+	 * If the client specified a wait time and the invocation finishes within
+	 * it, the result is returned directly with status 200. Otherwise status
+	 * 202 with the location for polling is returned. If the proxy is
+	 * saturated, status 429 with a <tt>Retry-After</tt> is returned before a
+	 * requestID is allocated. The invocation times out after the time
+	 * specified by the header <tt>{@value #TIMEOUT_HEADER}</tt>. Repeated
+	 * submissions with the same <tt>{@value #IDEMPOTENCY_HEADER}</tt> are
+	 * answered with the requestID of the first submission, or with status 422
+	 * if the key was used for another invocation. Identical invocations of
+	 * safe operations share the invocation in flight, those of cacheable
+	 * operations are answered from the {@link ResultCache}.
 	 * 
 	 * @see javax.servlet.http.HttpServlet#doPost(javax.servlet.http.HttpServletRequest,
 	 *      javax.servlet.http.HttpServletResponse)
@@ -55,34 +106,746 @@ public class AppBusProxyServlet extends HttpServlet {
 
 		System.out.println(PROXY + "POST request handling");
 
-		PrintWriter out = response.getWriter();
+		if (BatchRequest.isBatch(request.getPathInfo())) {
+			doBatch(request, response);
+			return;
+		}
 
 		PostRequest postRequest;
 		try {
 			postRequest = new PostRequest(request);
+		} catch (RequestTooLargeException e) {
+			response.setStatus(413);
+			response.resetBuffer();
+			response.getWriter().println(e.getMessage());
+			return;
 		} catch (ServletException | ParseException | IOException e) {
 			response.setStatus(400);
 			response.resetBuffer();
 			e.printStackTrace();
-			out.println(e.toString());
+			response.getWriter().println(e.toString());
+			return;
+		}
+
+		String idempotencyKey = request.getHeader(IDEMPOTENCY_HEADER);
+		if (idempotencyKey != null) {
+			IdempotencyKeys.Registration existing = idempotencyKeys.get(idempotencyKey);
+			if (existing != null) {
+				if (existing.matches(postRequest.getInvocationKey())) {
+					writeAccepted(existing.getId(), request, response, postRequest);
+				} else {
+					writeKeyReused(response);
+				}
+				return;
+			}
+		}
+
+		// Cached results don't need an executor slot
+		byte[] cached = ResultCache.get(postRequest);
+
+		AdmissionControl admission = null;
+		if (cached == null) {
+			admission = admit(request, postRequest.getClassName());
+			if (admission == null) {
+				writeSaturated(controlOf(request, postRequest.getClassName()), response);
+				return;
+			}
+		}
+
+		RequestRecord record = table.create(RequestIdGenerator.next());
+		record.setRequestedFormat(postRequest.getResultFormat());
+		long id = record.getId();
+
+		if (idempotencyKey != null) {
+			IdempotencyKeys.Registration existing = idempotencyKeys.putIfAbsent(idempotencyKey, id,
+					postRequest.getInvocationKey());
+			if (existing != null) {
+				// Concurrent submission with the same key
+				if (admission != null) {
+					admission.release();
+				}
+				table.remove(id);
+				if (existing.matches(postRequest.getInvocationKey())) {
+					writeAccepted(existing.getId(), request, response, postRequest);
+				} else {
+					writeKeyReused(response);
+				}
+				return;
+			}
+		}
+
+		RequestJournal.track(record, postRequest);
+		ProxyMetrics.requested(1);
+
+		if (cached != null) {
+			System.out.println(PROXY + "Result of request " + id + " taken from the cache.");
+			record.complete(cached);
+			retention.finished(id);
+			writeAccepted(id, request, response, postRequest);
 			return;
 		}
 
-		Integer id = incrementer.getAndIncrement();
+		String invocationKey = null;
+		if (ApplicationInterfacesProperties.get(postRequest.getClassName()).isSafe(postRequest.getMethodName())) {
+			invocationKey = postRequest.getInvocationKey();
+		}
+
+		if (invocationKey != null && SingleFlight.join(invocationKey, record)) {
+			// Shares the invocation in flight and doesn't need a permit
+			admission.release();
+			scheduleDeadline(request, postRequest, record);
+
+		} else if (submit(request, admission, postRequest, record) != null) {
+			if (invocationKey != null) {
+				SingleFlight.lead(invocationKey, record);
+			}
 
-		// Begin at 0 again. Assumption: old requests were processed.
-		// (Prototype)
-		if (id == Integer.MAX_VALUE) {
-			incrementer.set(0);
+		} else {
+			table.remove(id);
+			if (idempotencyKey != null) {
+				idempotencyKeys.remove(idempotencyKey, id);
+			}
+			writeUnavailable(response);
+			return;
+		}
+
+		writeAccepted(id, request, response, postRequest);
+	}
+
+	/**
+	 * Returns the result directly, if the client specified a wait time and the
+	 * invocation finishes within it. Otherwise status 202 with the location
+	 * for polling.
+	 */
+	private static void writeAccepted(long id, HttpServletRequest request, HttpServletResponse response,
+			PostRequest postRequest) throws IOException {
+
+		RequestRecord record = table.get(id);
+		long waitMillis = getWaitMillis(request, postRequest);
+
+		if (record != null && waitMillis > 0) {
+			System.out.println(PROXY + "Waiting up to " + waitMillis + " ms for the result.");
+			if (awaitFinished(new RequestRecord[] { record }, waitMillis)) {
+				System.out.println(PROXY + "Invocation finished in time, returning result directly.");
+				writeResult(record, postRequest.getResultFormat(), request, response);
+				return;
+			}
+			System.out.println(PROXY + "Invocation not finished in time.");
 		}
-		queue.put(id, false);
 
 		response.setStatus(202);
 		response.setHeader("Location", request.getRequestURL() + "/activeRequests/" + id);
+	}
+
+	/**
+	 * 
+	 * For invoking a batch of methods. Supported URI:
+	 * <tt>{@literal [/appInvoker/batch]}</tt>. All invocations are scheduled at
+	 * once and status 202 with the location of the batch
+	 * <tt>{@literal [/appInvoker/batches/([0-9]*)$]}</tt> is returned. If the
+	 * client specified a wait time by the header <tt>{@value #WAIT_HEADER}</tt>
+	 * and the whole batch finishes within it, the batch with all results is
+	 * returned directly with status 200.
+	 */
+	private void doBatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+		BatchRequest batchRequest;
+		try {
+			batchRequest = new BatchRequest(request);
+		} catch (RequestTooLargeException e) {
+			response.setStatus(413);
+			response.resetBuffer();
+			response.getWriter().println(e.getMessage());
+			return;
+		} catch (ServletException | ParseException | IOException e) {
+			response.setStatus(400);
+			response.resetBuffer();
+			e.printStackTrace();
+			response.getWriter().println(e.toString());
+			return;
+		}
+
+		List<PostRequest> invocations = batchRequest.getInvocations();
+
+		AdmissionControl shared = (AdmissionControl) request.getServletContext().getAttribute("admission");
+		if (invocations.size() > shared.getCapacity()) {
+			System.out.println(PROXY + "Batch exceeds the capacity of the proxy.");
+			response.setStatus(400);
+			response.resetBuffer();
+			response.getWriter().println("Batch exceeds the capacity of the proxy: " + shared.getCapacity());
+			return;
+		}
+
+		// All invocations are admitted or none
+		AdmissionControl[] admissions = new AdmissionControl[invocations.size()];
+		for (int i = 0; i < admissions.length; i++) {
+			String className = invocations.get(i).getClassName();
+			admissions[i] = admit(request, className);
+			if (admissions[i] == null) {
+				for (int j = 0; j < i; j++) {
+					admissions[j].release();
+				}
+				writeSaturated(controlOf(request, className), response);
+				return;
+			}
+		}
+
+		long[] ids = new long[invocations.size()];
+		RequestRecord[] records = new RequestRecord[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			records[i] = table.create(RequestIdGenerator.next());
+			records[i].setRequestedFormat(invocations.get(i).getResultFormat());
+			ids[i] = records[i].getId();
+			RequestJournal.track(records[i], invocations.get(i));
+		}
+		ProxyMetrics.requested(ids.length);
+
+		long batchID = RequestIdGenerator.next();
+		batches.put(batchID, ids);
+
+		for (int i = 0; i < ids.length; i++) {
+			submit(request, admissions[i], invocations.get(i), records[i]);
+		}
+
+		long waitMillis = getWaitMillis(request, null);
+
+		if (waitMillis > 0) {
+			System.out.println(PROXY + "Waiting up to " + waitMillis + " ms for the batch.");
+			if (awaitFinished(records, waitMillis)) {
+				System.out.println(PROXY + "Batch finished in time, returning results directly.");
+				writeBatch(batchID, ids, response);
+				return;
+			}
+			System.out.println(PROXY + "Batch not finished in time.");
+		}
+
+		JSONObject obj = new JSONObject();
+		obj.put("batch", batchID);
+		List<Long> requests = new ArrayList<Long>(ids.length);
+		for (long id : ids) {
+			requests.add(id);
+		}
+		obj.put("requests", requests);
+
+		response.setStatus(202);
+		// [/appInvoker/batch] -> [/appInvoker/batches/{id}]
+		String url = request.getRequestURL().toString();
+		response.setHeader("Location", url.substring(0, url.lastIndexOf('/')) + "/batches/" + batchID);
+		response.setContentType("application/json");
+		obj.writeJSONString(response.getWriter());
+	}
+
+	/**
+	 * @return the bulkhead of the class, or the admission control shared by
+	 *         all classes without a bulkhead
+	 */
+	private static AdmissionControl controlOf(HttpServletRequest request, String className) {
+		Bulkhead bulkhead = Bulkhead.forClass(className);
+		if (bulkhead != null) {
+			return bulkhead;
+		}
+		return (AdmissionControl) request.getServletContext().getAttribute("admission");
+	}
+
+	/**
+	 * Admits an invocation of the specified class. If the bulkhead of the
+	 * class is full and the overflow policy is <tt>shared</tt>, the invocation
+	 * is admitted by the shared admission control instead.
+	 * 
+	 * @return the control that admitted the invocation. <tt>null</tt> if the
+	 *         proxy is saturated.
+	 */
+	private static AdmissionControl admit(HttpServletRequest request, String className) {
+
+		AdmissionControl control = controlOf(request, className);
+		if (control.tryAcquire(1)) {
+			return control;
+		}
+
+		Object overflow = request.getServletContext().getAttribute("bulkheadOverflow");
+		if (control instanceof Bulkhead && "shared".equals(overflow)) {
+			AdmissionControl shared = (AdmissionControl) request.getServletContext().getAttribute("admission");
+			if (shared.tryAcquire(1)) {
+				System.out.println(PROXY + "Bulkhead of " + className + " is full, using the shared executor.");
+				return shared;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Schedules an admitted invocation and its deadline.
+	 * 
+	 * @return <tt>null</tt> if the executor rejected the invocation, e.g.
+	 *         because it was shut down. The request is marked as failed then.
+	 */
+	private static Future<?> submit(HttpServletRequest request, AdmissionControl admission,
+			PostRequest postRequest, RequestRecord record) {
+
+		ExecutorService executor = (ExecutorService) request.getServletContext().getAttribute("executor");
+		Future<?> future;
+		try {
+			future = admission.submit(executor, new AppBusProxy(postRequest, record));
+		} catch (RejectedExecutionException e) {
+			System.out.println(PROXY + "Invocation rejected by the executor.");
+			admission.release();
+			record.fail();
+			return null;
+		}
+
+		scheduleDeadline(request, postRequest, record);
+		return future;
+	}
+
+	private static void scheduleDeadline(HttpServletRequest request, PostRequest postRequest,
+			RequestRecord record) {
+		long timeoutMillis = getTimeoutMillis(request, postRequest.getClassName());
+		if (timeoutMillis > 0) {
+			Deadlines.schedule(record, timeoutMillis);
+		}
+	}
+
+	/**
+	 * Time after which an invocation times out. Specified by the header
+	 * <tt>{@value #TIMEOUT_HEADER}</tt>, the <tt>timeout</tt> of the class in
+	 * the <tt>ApplicationInterfacesProperties</tt> or the
+	 * <tt>defaultTimeout</tt> attribute of the servlet context, in this order.
+	 * 
+	 * @return timeout in milliseconds. <tt>0</tt> if the invocation doesn't
+	 *         time out.
+	 */
+	private static long getTimeoutMillis(HttpServletRequest request, String className) {
+
+		String header = request.getHeader(TIMEOUT_HEADER);
+		if (header != null) {
+			try {
+				return Math.max(0, Long.parseLong(header.trim()));
+			} catch (NumberFormatException e) {
+				System.out.println(PROXY + "Invalid " + TIMEOUT_HEADER + " header: " + header);
+			}
+		}
 
-		ThreadPoolExecutor executor = (ThreadPoolExecutor) request.getServletContext().getAttribute("executor");
-		executor.execute(new AppBusProxy(postRequest, id));
+		long timeout = ApplicationInterfacesProperties.get(className).getTimeout();
+		if (timeout > 0) {
+			return timeout;
+		}
 
+		Long defaultTimeout = (Long) request.getServletContext().getAttribute("defaultTimeout");
+		return defaultTimeout != null ? defaultTimeout : 0;
+	}
+
+	/**
+	 * Waits until all specified invocations finished, including invocations
+	 * that timed out or were cancelled while their worker is still busy.
+	 * 
+	 * @return <tt>true</tt> if all invocations finished within the wait time.
+	 *         Otherwise <tt>false</tt>
+	 */
+	private static boolean awaitFinished(RequestRecord[] records, long waitMillis) {
+
+		final CountDownLatch latch = new CountDownLatch(records.length);
+		Runnable countDown = new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		};
+
+		for (RequestRecord record : records) {
+			record.addFinishedListener(countDown);
+		}
+		try {
+			return latch.await(waitMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			for (RequestRecord record : records) {
+				record.removeFinishedListener(countDown);
+			}
+		}
+	}
+
+	private static void writeSaturated(AdmissionControl admission, HttpServletResponse response) throws IOException {
+		System.out.println(PROXY + "Proxy is saturated, rejecting request.");
+		response.setStatus(429);
+		response.resetBuffer();
+		response.setHeader("Retry-After", Long.toString(admission.getRetryAfter()));
+		response.setContentType("text/plain");
+		response.getWriter().println("Too many outstanding invocations.");
+	}
+
+	private static void writeKeyReused(HttpServletResponse response) throws IOException {
+		System.out.println(PROXY + "Idempotency key was used for another invocation.");
+		response.setStatus(422);
+		response.resetBuffer();
+		response.setContentType("text/plain");
+		response.getWriter().println(IDEMPOTENCY_HEADER + " was already used for another invocation.");
+	}
+
+	private static void writeUnavailable(HttpServletResponse response) throws IOException {
+		response.setStatus(503);
+		response.resetBuffer();
+		response.setContentType("text/plain");
+		response.getWriter().println("Proxy is shutting down.");
+	}
+
+	/**
+	 * @param id
+	 *            of the request
+	 * @param state
+	 *            of the request. <tt>null</tt> if the request is not in the
+	 *            table.
+	 * @return <tt>PENDING</tt>, <tt>FINISHED</tt>, <tt>FAILED</tt>,
+	 *         <tt>TIMED_OUT</tt>, <tt>CANCELLED</tt>, <tt>EXPIRED</tt> or
+	 *         <tt>UNKNOWN</tt>
+	 */
+	private static String statusOf(long id, RequestState state) {
+
+		if (state == null) {
+			return retention.isExpired(id) ? "EXPIRED" : "UNKNOWN";
+		}
+		switch (state) {
+		case QUEUED:
+		case RUNNING:
+			return "PENDING";
+		case SUCCEEDED:
+			return "FINISHED";
+		case FAILED:
+			return "FAILED";
+		case TIMED_OUT:
+			return "TIMED_OUT";
+		case CANCELLED:
+			return "CANCELLED";
+		default:
+			// Result was already delivered
+			return "UNKNOWN";
+		}
+	}
+
+	/**
+	 * Writes status and results of all invocations of a batch. If the whole
+	 * batch has finished, the batch and its results are removed from the table.
+	 */
+	private static void writeBatch(long batchID, long[] ids, HttpServletResponse response) throws IOException {
+
+		boolean finished = true;
+		List<JSONObject> items = new ArrayList<JSONObject>(ids.length);
+
+		for (long id : ids) {
+			RequestRecord record = table.get(id);
+			RequestState state = record != null ? record.getState() : null;
+			if (record != null) {
+				record.polled();
+			}
+			String status = statusOf(id, state);
+
+			JSONObject item = new JSONObject();
+			item.put("id", id);
+			item.put("status", status);
+			if (state == RequestState.SUCCEEDED) {
+				item.put("result", SerializedResult.valueOf(record.getResult()));
+			} else if (status.equals("PENDING")) {
+				finished = false;
+			}
+			items.add(item);
+		}
+
+		JSONObject obj = new JSONObject();
+		obj.put("batch", batchID);
+		obj.put("status", finished ? "FINISHED" : "PENDING");
+		obj.put("items", items);
+
+		response.setStatus(200);
+		response.setContentType("application/json");
+		response.setCharacterEncoding(SerializedResult.UTF_8.name());
+		obj.writeJSONString(response.getWriter());
+
+		if (finished) {
+			// Remove polled responses, the batch first so it isn't reported as expired
+			batches.remove(batchID);
+			for (long id : ids) {
+				RequestRecord record = table.get(id);
+				if (record != null && record.deliver() != null) {
+					table.remove(id);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the status of every specified request. Results of finished
+	 * invocations are included if requested and removed from the table like
+	 * polled responses.
+	 */
+	private static void writeStatuses(long[] ids, boolean includeResults, HttpServletResponse response)
+			throws IOException {
+
+		JSONObject statuses = new JSONObject();
+		JSONObject resultsObj = new JSONObject();
+
+		for (long id : ids) {
+			RequestRecord record = table.get(id);
+			RequestState state = record != null ? record.getState() : null;
+			if (record != null) {
+				record.polled();
+			}
+
+			if (includeResults && record != null) {
+				RequestState delivered = record.deliver();
+				if (delivered != null) {
+					state = delivered;
+					if (delivered == RequestState.SUCCEEDED) {
+						resultsObj.put(Long.toString(id), SerializedResult.valueOf(record.getResult()));
+					}
+					// Remove polled responses.
+					table.remove(id);
+				}
+			}
+			statuses.put(Long.toString(id), statusOf(id, state));
+		}
+
+		JSONObject obj = new JSONObject();
+		obj.put("statuses", statuses);
+		if (includeResults) {
+			obj.put("results", resultsObj);
+		}
+
+		response.setStatus(200);
+		response.setContentType("application/json");
+		response.setCharacterEncoding(SerializedResult.UTF_8.name());
+		obj.writeJSONString(response.getWriter());
+	}
+
+	/**
+	 * Time the client is willing to wait for the result. Specified by the
+	 * header <tt>{@value #WAIT_HEADER}</tt> or the <tt>wait</tt> field of the
+	 * <tt>invocation-information</tt>, both in milliseconds. Limited by the
+	 * <tt>syncMaxWait</tt> attribute of the servlet context.
+	 */
+	private static long getWaitMillis(HttpServletRequest request, PostRequest postRequest) {
+
+		long waitMillis = postRequest != null ? postRequest.getWaitMillis() : 0;
+
+		String header = request.getHeader(WAIT_HEADER);
+		if (header != null) {
+			try {
+				waitMillis = Long.parseLong(header.trim());
+			} catch (NumberFormatException e) {
+				System.out.println(PROXY + "Invalid " + WAIT_HEADER + " header: " + header);
+			}
+		}
+
+		Long maxWait = (Long) request.getServletContext().getAttribute("syncMaxWait");
+		if (maxWait != null && waitMillis > maxWait) {
+			waitMillis = maxWait;
+		}
+		return waitMillis;
+	}
+
+	/**
+	 * Parks a status request without holding a thread until all specified
+	 * invocations finished or the wait time elapsed. Completion is signalled by
+	 * the worker finishing the last invocation.
+	 */
+	private static void park(final long[] ids, long waitMillis, HttpServletRequest request,
+			final HttpServletResponse response, final ResponseWriter onFinished, final ResponseWriter onTimeout) {
+
+		Long maxWait = (Long) request.getServletContext().getAttribute("longPollMaxWait");
+		if (maxWait != null && waitMillis > maxWait) {
+			waitMillis = maxWait;
+		}
+
+		final AsyncContext asyncContext = request.startAsync();
+		final AtomicBoolean completed = new AtomicBoolean(false);
+		final AtomicInteger pending = new AtomicInteger(ids.length);
+
+		final Runnable countDown = new Runnable() {
+			@Override
+			public void run() {
+				if (pending.decrementAndGet() == 0 && completed.compareAndSet(false, true)) {
+					try {
+						onFinished.write(response);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					asyncContext.complete();
+				}
+			}
+		};
+
+		asyncContext.setTimeout(waitMillis);
+		asyncContext.addListener(new AsyncListener() {
+
+			@Override
+			public void onTimeout(AsyncEvent event) throws IOException {
+				removeFinishedListener(ids, countDown);
+				if (completed.compareAndSet(false, true)) {
+					onTimeout.write(response);
+					asyncContext.complete();
+				}
+			}
+
+			@Override
+			public void onError(AsyncEvent event) throws IOException {
+				removeFinishedListener(ids, countDown);
+			}
+
+			@Override
+			public void onComplete(AsyncEvent event) throws IOException {
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) throws IOException {
+			}
+		});
+
+		for (long id : ids) {
+			RequestRecord record = table.get(id);
+			if (record != null) {
+				record.addFinishedListener(countDown);
+			} else {
+				// Unknown requests don't need to be waited for
+				countDown.run();
+			}
+		}
+	}
+
+	private static void removeFinishedListener(long[] ids, Runnable listener) {
+		for (long id : ids) {
+			RequestRecord record = table.get(id);
+			if (record != null) {
+				record.removeFinishedListener(listener);
+			}
+		}
+	}
+
+	/**
+	 * Writes the response of a parked request.
+	 */
+	private interface ResponseWriter {
+		void write(HttpServletResponse response) throws IOException;
+	}
+
+	private static void writeExpired(HttpServletResponse response) throws IOException {
+		System.out.println(PROXY + "Result expired before it was fetched.");
+		JSONObject obj = new JSONObject();
+		obj.put("status", "EXPIRED");
+		response.setStatus(410);
+		response.resetBuffer();
+		response.setContentType("application/json");
+		obj.writeJSONString(response.getWriter());
+	}
+
+	private static void writePending(HttpServletResponse response) throws IOException {
+		JSONObject obj = new JSONObject();
+		obj.put("status", "PENDING");
+		response.setStatus(200);
+		response.setContentType("application/json");
+		response.setCharacterEncoding(SerializedResult.UTF_8.name());
+		obj.writeJSONString(response.getWriter());
+	}
+
+	/**
+	 * Writes the result of a finished invocation and removes it from the
+	 * table. The result is only delivered once, even if the client polls it
+	 * concurrently. The result is copied to the response as it was serialized
+	 * by the worker, unless the client prefers another encoding. A result the
+	 * worker compressed is sent with <tt>Content-Encoding</tt> if the client
+	 * accepts gzip or deflate. Invocations that timed out are answered with
+	 * status 504, cancelled invocations with status 410.
+	 * 
+	 * @param format
+	 *            encoding preferred by the client. <tt>null</tt> for the
+	 *            encoding of the stored result.
+	 */
+	private static void writeResult(RequestRecord record, WireFormat format, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+
+		RequestState state = record.deliver();
+
+		if (state == RequestState.SUCCEEDED) {
+
+			System.out.println(PROXY + "Returning Result.");
+			response.setStatus(200);
+
+			CompressedResult compressed = record.getCompressedResult();
+			String coding = null;
+			if (compressed != null) {
+				response.addHeader("Vary", "Accept-Encoding");
+				if (format == null || format == compressed.getFormat()) {
+					coding = CompressedResult.negotiate(request.getHeader("Accept-Encoding"));
+				}
+			}
+			TieredResult stored = record.getStoredResult();
+
+			if (coding != null) {
+				setContentType(compressed.getFormat(), response);
+				response.setHeader("Content-Encoding", coding);
+				response.setContentLength(compressed.getContentLength(coding));
+				compressed.writeTo(response.getOutputStream(), coding);
+
+			} else if (stored != null && (format == null || format == record.getResultFormat())) {
+				// Results off the heap are not copied to the heap
+				setContentType(record.getResultFormat(), response);
+				response.setContentLength(stored.length());
+				stored.writeTo(response.getOutputStream());
+
+			} else {
+				byte[] body = record.getResult();
+				if (format != null) {
+					body = SerializedResult.convert(body, format);
+				}
+
+				setContentType(WireFormat.of(body), response);
+				response.setContentLength(body.length);
+				response.getOutputStream().write(body);
+			}
+
+		} else if (state == RequestState.TIMED_OUT || state == RequestState.CANCELLED) {
+			System.out.println(PROXY + "Invocation " + state.name().toLowerCase() + ".");
+			JSONObject obj = new JSONObject();
+			obj.put("status", state.name());
+			response.setStatus(state == RequestState.TIMED_OUT ? 504 : 410);
+			response.resetBuffer();
+			response.setContentType("application/json");
+			obj.writeJSONString(response.getWriter());
+
+		} else {
+			System.out.println(PROXY + "Error while invoking specified method.");
+			response.setStatus(404);
+			response.resetBuffer();
+			response.setContentType("text/plain");
+			response.getWriter().println("Error while invoking specified method.");
+		}
+
+		// Remove polled responses.
+		if (state != null) {
+			table.remove(record.getId());
+		}
+	}
+
+	private static void writeMetrics(MetricsRequest metricsRequest, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+
+		MetricsWriter metrics = new MetricsWriter(request.getServletContext());
+		response.setStatus(200);
+		if (metricsRequest.isPrometheus()) {
+			response.setContentType(MetricsWriter.PROMETHEUS_CONTENT_TYPE);
+			response.setCharacterEncoding(SerializedResult.UTF_8.name());
+			metrics.writePrometheus(response.getWriter());
+		} else {
+			response.setContentType("application/json");
+			response.setCharacterEncoding(SerializedResult.UTF_8.name());
+			metrics.writeJSON(response.getWriter());
+		}
+	}
+
+	private static void setContentType(WireFormat format, HttpServletResponse response) {
+		response.setContentType(format.getContentType());
+		if (format == WireFormat.JSON) {
+			response.setCharacterEncoding(SerializedResult.UTF_8.name());
+		}
 	}
 
 	/**
@@ -91,7 +854,15 @@ public class AppBusProxyServlet extends HttpServlet {
 	 * result of the invocation. Supported URIs:
 	 * <tt>{@literal [/appInvoker/activeRequests/([0-9]*)$]}</tt> for polling &
 	 * <tt>{@literal [/appInvoker/activeRequests/([0-9]*)$/response$]}</tt> for
-	 * requesting the result.
+	 * requesting the result & <tt>{@literal [/appInvoker/batches/([0-9]*)$]}</tt>
+	 * for status and results of a batch. The status of several requests can be
+	 * queried at once by <tt>{@literal [/appInvoker/activeRequests?ids=...]}</tt>
+	 * with a comma separated list of requestIDs and ranges, optionally with
+	 * <tt>results=true</tt> for the results of finished invocations. With the
+	 * query parameter <tt>wait</tt> (in milliseconds) polling returns as soon
+	 * as the invocation finished instead of answering <tt>PENDING</tt>
+	 * immediately. The metrics of the proxy are returned by
+	 * <tt>{@literal [/metrics]}</tt>, as JSON or in the Prometheus text format.
 	 * 
 	 * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest,
 	 *      javax.servlet.http.HttpServletResponse)
@@ -102,72 +873,123 @@ public class AppBusProxyServlet extends HttpServlet {
 		System.out.println(PROXY + "GET request handling");
 		System.out.println(PROXY + "PATH INFO: " + request.getPathInfo());
 
-		PrintWriter out = response.getWriter();
-
 		try {
-			GetRequest getRequest = new GetRequest(request.getPathInfo());
+			if (MetricsRequest.isMetrics(request.getPathInfo())) {
+				writeMetrics(new MetricsRequest(request), request, response);
+				return;
+			}
 
-			Integer id = getRequest.getRequestID();
+			GetRequest getRequest = new GetRequest(request);
+
+			if (getRequest.isStatusQuery()) {
+				System.out.println(PROXY + "Status query");
+				writeStatuses(getRequest.getRequestIDs(), getRequest.isIncludeResults(), response);
+				return;
+			}
+
+			long id = getRequest.getRequestID();
 			System.out.println(PROXY + "ID: " + id);
 
 			Boolean isQueuePolling = getRequest.isQueuePolling();
 
-			if (isQueuePolling) {
+			if (getRequest.isBatchPolling()) {
+				System.out.println(PROXY + "Batch polling");
+
+				final long batchID = id;
+				final long[] ids = batches.get(batchID);
+
+				if (ids == null && retention.isExpired(batchID)) {
+					writeExpired(response);
+
+				} else if (ids == null) {
+					System.out.println(PROXY + "Unknown batch id.");
+					response.setStatus(404);
+					response.resetBuffer();
+					response.setContentType("text/plain");
+					response.getWriter().println("Unknown batch id.");
+
+				} else if (getRequest.getWaitMillis() > 0 && request.isAsyncSupported()) {
+					System.out.println(PROXY + "Waiting for the batch.");
+
+					ResponseWriter writer = new ResponseWriter() {
+						@Override
+						public void write(HttpServletResponse response) throws IOException {
+							writeBatch(batchID, ids, response);
+						}
+					};
+					park(ids, getRequest.getWaitMillis(), request, response, writer, writer);
+
+				} else {
+					writeBatch(batchID, ids, response);
+				}
+
+			} else if (isQueuePolling) {
 				System.out.println(PROXY + "Queue polling");
 
-				if (queue.containsID(id)) {
+				RequestRecord record = table.get(id);
+
+				if (record != null && record.getState() != RequestState.DELIVERED) {
 					System.out.println(PROXY + "ID is known.");
+					record.polled();
 
-					if (queue.hasFinished(id)) {
+					if (record.getState().isFinished()) {
 						System.out.println(PROXY + "Invocation is finished, send location of Result.");
 						response.setStatus(303);
 						response.setHeader("Location", request.getRequestURL() + "/response");
 
+					} else if (getRequest.getWaitMillis() > 0 && request.isAsyncSupported()) {
+						System.out.println(PROXY + "Invocation is not finished yet, waiting.");
+
+						final String location = request.getRequestURL() + "/response";
+						park(new long[] { id }, getRequest.getWaitMillis(), request, response,
+								new ResponseWriter() {
+									@Override
+									public void write(HttpServletResponse response) throws IOException {
+										System.out.println(PROXY + "Invocation is finished, send location of Result.");
+										response.setStatus(303);
+										response.setHeader("Location", location);
+									}
+								}, new ResponseWriter() {
+									@Override
+									public void write(HttpServletResponse response) throws IOException {
+										System.out.println(PROXY + "Invocation is not finished yet.");
+										writePending(response);
+									}
+								});
+
 					} else {
 						System.out.println(PROXY + "Invocation is not finished yet.");
-						JSONObject obj = new JSONObject();
-						obj.put("status", "PENDING");
-						response.setStatus(200);
-						response.setContentType("application/json");
-						obj.writeJSONString(out);
+						writePending(response);
 					}
+				} else if (retention.isExpired(id)) {
+					writeExpired(response);
+
 				} else {
 					System.out.println(PROXY + "There is no entry for this id in the queue.");
 					response.setStatus(404);
 					response.resetBuffer();
-					out.println("There is no entry for this id in the queue.");
+					response.getWriter().println("There is no entry for this id in the queue.");
 				}
 
 			} else {
 				System.out.println(PROXY + "Getting Results");
 
-				if (results.containsID(id)) {
-
-					System.out.println(PROXY + "Returning Result.");
-					response.setStatus(200);
-					response.setContentType("application/json");
-					results.get(id).writeJSONString(out);
+				RequestRecord record = table.get(id);
 
-					// Remove polled responses.
-					results.remove(id);
-					queue.remove(id);
+				if (record == null && retention.isExpired(id)) {
+					writeExpired(response);
 
-				} else if (!queue.containsID(id)) {
+				} else if (record == null) {
 					System.out.println(PROXY + "Unknown id.");
 					response.setStatus(404);
 					response.resetBuffer();
 					response.setContentType("text/plain");
-					out.println("Unknown id.");
+					response.getWriter().println("Unknown id.");
 				} else {
-					System.out.println(PROXY + "Error while invoking specified method.");
-					response.setStatus(404);
-					response.resetBuffer();
-					response.setContentType("text/plain");
-					out.println("Error while invoking specified method.");
-
-					// Remove polled responses.
-					results.remove(id);
-					queue.remove(id);
+					record.polled();
+					writeResult(record,
+							WireFormat.fromAccept(request.getHeader("Accept"), record.getRequestedFormat()),
+							request, response);
 				}
 
 			}
@@ -175,9 +997,80 @@ public class AppBusProxyServlet extends HttpServlet {
 		} catch (ServletException e) {
 			response.setStatus(400);
 			response.resetBuffer();
-			out.println("Invocation failed: " + e);
+			response.getWriter().println("Invocation failed: " + e);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * 
+	 * For cancelling an invocation. Supported URI:
+	 * <tt>{@literal [/appInvoker/activeRequests/([0-9]*)$]}</tt>. A queued
+	 * invocation is dropped, a running invocation is interrupted. Status 200
+	 * is returned if the invocation was cancelled, status 409 with the current
+	 * status if it had already finished. Cached results are invalidated by
+	 * <tt>{@literal [/appInvoker/cache(/class(/operation)?)?]}</tt>.
+	 * 
+	 * @see javax.servlet.http.HttpServlet#doDelete(javax.servlet.http.HttpServletRequest,
+	 *      javax.servlet.http.HttpServletResponse)
+	 */
+	protected void doDelete(HttpServletRequest request, HttpServletResponse response)
+			throws ServletException, IOException {
+
+		System.out.println(PROXY + "DELETE request handling");
+		System.out.println(PROXY + "PATH INFO: " + request.getPathInfo());
+
+		try {
+			if (CacheRequest.isCache(request.getPathInfo())) {
+				CacheRequest cacheRequest = new CacheRequest(request.getPathInfo());
+
+				JSONObject obj = new JSONObject();
+				obj.put("invalidated", ResultCache.invalidate(cacheRequest.getClassName(), cacheRequest.getMethodName()));
+				response.setStatus(200);
+				response.setContentType("application/json");
+				obj.writeJSONString(response.getWriter());
+				return;
+			}
+
+			GetRequest getRequest = new GetRequest(request.getPathInfo());
+
+			if (!getRequest.isQueuePolling()) {
+				throw new ServletException(PROXY + "Only requests can be cancelled.");
+			}
+
+			long id = getRequest.getRequestID();
+			RequestRecord record = table.get(id);
+
+			if (record == null && retention.isExpired(id)) {
+				writeExpired(response);
+
+			} else if (record == null) {
+				System.out.println(PROXY + "Unknown id.");
+				response.setStatus(404);
+				response.resetBuffer();
+				response.setContentType("text/plain");
+				response.getWriter().println("Unknown id.");
+
+			} else {
+				JSONObject obj = new JSONObject();
+				if (Deadlines.cancel(record)) {
+					response.setStatus(200);
+					obj.put("status", "CANCELLED");
+				} else {
+					System.out.println(PROXY + "Invocation has already finished.");
+					response.setStatus(409);
+					obj.put("status", statusOf(id, record.getState()));
+				}
+				response.setContentType("application/json");
+				obj.writeJSONString(response.getWriter());
+			}
+
+		} catch (ServletException e) {
+			response.setStatus(400);
+			response.resetBuffer();
+			response.getWriter().println("Cancellation failed: " + e);
 			e.printStackTrace();
 		}
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,16 +1,45 @@
 package appbus.proxy.servlet;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+import appbus.proxy.AppBusProxy;
+import appbus.proxy.config.ApplicationInterfaceInformation;
+import appbus.proxy.config.ApplicationInterfacesProperties;
+import appbus.proxy.execution.AdmissionControl;
+import appbus.proxy.execution.Bulkhead;
+import appbus.proxy.execution.Deadlines;
+import appbus.proxy.execution.PriorityExecutor;
+import appbus.proxy.execution.VirtualThreads;
+import appbus.proxy.invocation.LambdaDispatcher;
+import appbus.proxy.model.requests.PostRequest;
+import appbus.proxy.model.resources.CompressedResult;
+import appbus.proxy.model.resources.IdempotencyKeys;
+import appbus.proxy.model.resources.RequestIdGenerator;
+import appbus.proxy.model.resources.RequestJournal;
+import appbus.proxy.model.resources.RequestRecord;
+import appbus.proxy.model.resources.RequestRetention;
+import appbus.proxy.model.resources.TieredResult;
 
 /**
  *
  * ServletListener that initiates a ThreadPoolExecutor when the servlet starts.
+ * Furthermore reads the <tt>ApplicationInterfacesProperties</tt> and
+ * configures the other components of the proxy from the context parameters
+ * <tt>appbus.*</tt>.
  * 
  * 
  * @author Michael Zimmermann - zimmerml@studi.informatik.uni-stuttgart.de
@@ -19,19 +48,371 @@ import javax.servlet.annotation.WebListener;
 @WebListener
 public class AppBusProxyServletListener implements ServletContextListener {
 
+	// just for logging
+	private final static String PROXY = "AppBusProxy: ";
+
+	/**
+	 * File the <tt>ApplicationInterfacesProperties</tt> are read from. If not
+	 * set they are read from the classpath resource {@link #PROPERTIES_RESOURCE}.
+	 */
+	final static String PROPERTIES_PARAM = "appbus.applicationInterfacesProperties";
+
+	/**
+	 * Classpath resource of the <tt>ApplicationInterfacesProperties</tt>.
+	 */
+	final static String PROPERTIES_RESOURCE = "ApplicationInterfacesProperties.xml";
+
+	/**
+	 * Number of invocations after which an operation is switched over to a
+	 * direct invoker.
+	 */
+	final static String PROMOTION_THRESHOLD_PARAM = "appbus.dispatch.promotionThreshold";
+
+	/**
+	 * Maximum time in milliseconds a POST waits for the result.
+	 */
+	final static String SYNC_MAX_WAIT_PARAM = "appbus.sync.maxWait";
+
+	/**
+	 * Maximum time in milliseconds a status request is parked.
+	 */
+	final static String LONG_POLL_MAX_WAIT_PARAM = "appbus.longPoll.maxWait";
+
+	/**
+	 * Maximum number of results that are never fetched.
+	 */
+	final static String RESULTS_MAX_ENTRIES_PARAM = "appbus.results.maxEntries";
+
+	/**
+	 * Maximum size in bytes of the results that are never fetched.
+	 */
+	final static String RESULTS_MAX_BYTES_PARAM = "appbus.results.maxBytes";
+
+	/**
+	 * Time in milliseconds a result is kept if it is never fetched.
+	 */
+	final static String RESULTS_TTL_PARAM = "appbus.results.ttl";
+
+	/**
+	 * Maximum number of idempotency keys of the clients.
+	 */
+	final static String IDEMPOTENCY_MAX_ENTRIES_PARAM = "appbus.idempotency.maxEntries";
+
+	/**
+	 * Time in milliseconds an idempotency key is kept.
+	 */
+	final static String IDEMPOTENCY_TTL_PARAM = "appbus.idempotency.ttl";
+
+	/**
+	 * Node of the proxy (0 - 1023). Proxies sharing clients, routing or caching
+	 * layers must be given distinct nodes, so their requestIDs don't collide.
+	 */
+	final static String NODE_PARAM = "appbus.node";
+
+	/**
+	 * Number of threads of the executor.
+	 */
+	final static String POOL_SIZE_PARAM = "appbus.executor.poolSize";
+
+	/**
+	 * Number of invocations waiting for a thread. Requests beyond are rejected
+	 * by the {@link AdmissionControl}.
+	 */
+	final static String QUEUE_SIZE_PARAM = "appbus.executor.queueSize";
+
+	/**
+	 * Milliseconds after which a waiting invocation gains one priority level.
+	 */
+	final static String AGING_PARAM = "appbus.executor.agingMillis";
+
+	/**
+	 * With <tt>virtual</tt> every invocation runs on its own virtual thread
+	 * instead of the executor.
+	 */
+	final static String MODE_PARAM = "appbus.executor.mode";
+
+	/**
+	 * Maximum number of virtual threads, <tt>0</tt> for no limit.
+	 */
+	final static String MAX_CONCURRENCY_PARAM = "appbus.executor.maxConcurrency";
+
+	/**
+	 * Whether a request for a full bulkhead is rejected (<tt>reject</tt>) or
+	 * runs in the shared executor (<tt>shared</tt>). Classes with
+	 * <tt>maxConcurrency</tt> run in a bulkhead, a thread pool of their own.
+	 */
+	final static String BULKHEAD_OVERFLOW_PARAM = "appbus.bulkhead.overflow";
+
+	/**
+	 * Time in milliseconds after which an invocation times out, unless a
+	 * timeout was declared for the class. <tt>0</tt> for no timeout.
+	 */
+	final static String TIMEOUT_PARAM = "appbus.invocation.timeout";
+
+	/**
+	 * Maximum size in bytes of a request body.
+	 */
+	final static String MAX_BODY_SIZE_PARAM = "appbus.request.maxBodySize";
+
+	/**
+	 * Size in bytes from which results are compressed by the worker,
+	 * <tt>0</tt> for no compression.
+	 */
+	final static String COMPRESSION_THRESHOLD_PARAM = "appbus.compression.threshold";
+
+	/**
+	 * Size in bytes from which results are kept off the heap.
+	 */
+	final static String SPILL_THRESHOLD_PARAM = "appbus.results.spillThreshold";
+
+	/**
+	 * Maximum size in bytes of the results kept in direct buffers. Results
+	 * beyond are spilled to files.
+	 */
+	final static String OFF_HEAP_MAX_BYTES_PARAM = "appbus.results.offHeapMaxBytes";
+
+	/**
+	 * Maximum size in bytes of the results spilled to files.
+	 */
+	final static String SPILL_MAX_BYTES_PARAM = "appbus.results.spillMaxBytes";
+
+	/**
+	 * Directory of the files results are spilled to.
+	 */
+	final static String SPILL_DIRECTORY_PARAM = "appbus.results.spillDirectory";
+
+	/**
+	 * File requests are journaled to and restored from on startup.
+	 * Interrupted invocations of <tt>safeOperations</tt> are invoked again, all
+	 * others fail.
+	 */
+	final static String JOURNAL_PARAM = "appbus.journal.file";
+
+	/**
+	 * Initial size in bytes the journal is mapped with.
+	 */
+	final static String JOURNAL_SIZE_PARAM = "appbus.journal.size";
+
+	/**
+	 * Interval in milliseconds in which the journal is compacted if necessary.
+	 */
+	final static String JOURNAL_COMPACTION_PARAM = "appbus.journal.compactionInterval";
+
 	public void contextInitialized(ServletContextEvent servletContextEvent) {
 
-		// Thread pool
-		ThreadPoolExecutor executor = new ThreadPoolExecutor(50, 100, 10, TimeUnit.SECONDS,
-				new ArrayBlockingQueue<Runnable>(50));
-		servletContextEvent.getServletContext().setAttribute("executor", executor);
+		ServletContext context = servletContextEvent.getServletContext();
+
+		loadApplicationInterfacesProperties(context);
+
+		// Direct invokers for frequently invoked operations
+		LambdaDispatcher.setPromotionThreshold(
+				getIntParameter(context, PROMOTION_THRESHOLD_PARAM, LambdaDispatcher.getPromotionThreshold()));
+
+		// Prefix and first epoch of the requestIDs
+		try {
+			RequestIdGenerator.init(getIntParameter(context, NODE_PARAM, RequestIdGenerator.getNode()));
+		} catch (IllegalArgumentException e) {
+			System.out.println(e.getMessage() + ". Using " + RequestIdGenerator.getNode() + ".");
+			RequestIdGenerator.init(RequestIdGenerator.getNode());
+		}
+
+		String mode = context.getInitParameter(MODE_PARAM);
+		if ("virtual".equalsIgnoreCase(mode)) {
 
+			// Virtual thread per invocation, optionally limited by the
+			// admission control
+			int maxConcurrency = getIntParameter(context, MAX_CONCURRENCY_PARAM, 10000);
+			if (maxConcurrency <= 0) {
+				maxConcurrency = Integer.MAX_VALUE;
+			}
+			context.setAttribute("executor", VirtualThreads.newExecutor());
+			context.setAttribute("admission", new AdmissionControl(maxConcurrency, 0));
+			context.setAttribute("executorMode", VirtualThreads.isAvailable() ? "virtual" : "platform-unbounded");
+			VirtualThreads.startPinnedMonitor();
+
+		} else {
+
+			// Thread pool. The queue is bounded by the admission control, so
+			// the executor never rejects an admitted invocation.
+			int poolSize = Math.max(1, getIntParameter(context, POOL_SIZE_PARAM, 100));
+			int queueSize = Math.max(0, getIntParameter(context, QUEUE_SIZE_PARAM, 50));
+			PriorityExecutor executor = new PriorityExecutor(poolSize, getLongParameter(context, AGING_PARAM, 1000));
+			Bulkhead.configure(getLongParameter(context, AGING_PARAM, 1000));
+			context.setAttribute("executor", executor);
+			context.setAttribute("admission", new AdmissionControl(poolSize, queueSize));
+			context.setAttribute("executorMode", "platform");
+		}
+		System.out.println(PROXY + "Executor mode: " + context.getAttribute("executorMode"));
+
+		// Policy if the bulkhead of a class is full
+		String overflow = context.getInitParameter(BULKHEAD_OVERFLOW_PARAM);
+		context.setAttribute("bulkheadOverflow", "shared".equalsIgnoreCase(overflow) ? "shared" : "reject");
+
+		// Upper bound for clients waiting for the result of an invocation
+		context.setAttribute("syncMaxWait", (long) getIntParameter(context, SYNC_MAX_WAIT_PARAM, 10000));
+		context.setAttribute("longPollMaxWait", (long) getIntParameter(context, LONG_POLL_MAX_WAIT_PARAM, 60000));
+
+		// Default deadline of invocations
+		context.setAttribute("defaultTimeout", getLongParameter(context, TIMEOUT_PARAM, 0));
+
+		// Maximum size of request bodies
+		context.setAttribute("maxBodySize", getLongParameter(context, MAX_BODY_SIZE_PARAM, 10L * 1024 * 1024));
+
+		// Minimum size of compressed results
+		CompressedResult.configure(getIntParameter(context, COMPRESSION_THRESHOLD_PARAM, 1024));
+
+		// Storage of large results
+		String spillDirectory = context.getInitParameter(SPILL_DIRECTORY_PARAM);
+		TieredResult.configure(getIntParameter(context, SPILL_THRESHOLD_PARAM, 1024 * 1024),
+				getLongParameter(context, OFF_HEAP_MAX_BYTES_PARAM, 256L * 1024 * 1024),
+				getLongParameter(context, SPILL_MAX_BYTES_PARAM, 1024L * 1024 * 1024),
+				new File(spillDirectory != null ? spillDirectory : System.getProperty("java.io.tmpdir")));
+
+		// Limits for results that are never fetched
+		RequestRetention.configure(getIntParameter(context, RESULTS_MAX_ENTRIES_PARAM, 10000),
+				getLongParameter(context, RESULTS_MAX_BYTES_PARAM, 64L * 1024 * 1024),
+				getLongParameter(context, RESULTS_TTL_PARAM, 10 * 60 * 1000));
+		RequestRetention.start();
+		IdempotencyKeys.configure(getIntParameter(context, IDEMPOTENCY_MAX_ENTRIES_PARAM, 100000),
+				getLongParameter(context, IDEMPOTENCY_TTL_PARAM, 24 * 60 * 60 * 1000L));
+
+		// Requests of the previous run
+		openJournal(context);
 	}
 
 	public void contextDestroyed(ServletContextEvent servletContextEvent) {
-		ThreadPoolExecutor executor = (ThreadPoolExecutor) servletContextEvent.getServletContext()
+		ExecutorService executor = (ExecutorService) servletContextEvent.getServletContext()
 				.getAttribute("executor");
 		executor.shutdown();
+		Bulkhead.clear();
+		VirtualThreads.stopPinnedMonitor();
+
+		Deadlines.stop();
+		RequestRetention.stop();
+		RequestJournal.close();
+	}
+
+	private static int getIntParameter(ServletContext context, String name, int defaultValue) {
+
+		String value = context.getInitParameter(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			System.out.println(PROXY + "Invalid value of " + name + ": " + value + ". Using " + defaultValue + ".");
+			return defaultValue;
+		}
+	}
+
+	private static long getLongParameter(ServletContext context, String name, long defaultValue) {
+
+		String value = context.getInitParameter(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			System.out.println(PROXY + "Invalid value of " + name + ": " + value + ". Using " + defaultValue + ".");
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Opens the journal, if configured, and invokes the interrupted requests
+	 * of <tt>safeOperations</tt> again. Other interrupted requests fail, as
+	 * they may have had an effect already.
+	 */
+	private static void openJournal(ServletContext context) {
+
+		String location = context.getInitParameter(JOURNAL_PARAM);
+		if (location == null) {
+			return;
+		}
+
+		Map<RequestRecord, PostRequest> interrupted;
+		try {
+			interrupted = RequestJournal.open(new File(location),
+					getIntParameter(context, JOURNAL_SIZE_PARAM, 64 * 1024 * 1024),
+					getLongParameter(context, JOURNAL_COMPACTION_PARAM, 60000));
+		} catch (IOException e) {
+			System.out.println(PROXY + "Can't open journal " + location + ". Requests are not journaled.");
+			e.printStackTrace();
+			return;
+		}
+
+		ExecutorService executor = (ExecutorService) context.getAttribute("executor");
+		AdmissionControl shared = (AdmissionControl) context.getAttribute("admission");
+		long defaultTimeout = (Long) context.getAttribute("defaultTimeout");
+		RequestRetention retention = new RequestRetention();
+
+		for (Map.Entry<RequestRecord, PostRequest> entry : interrupted.entrySet()) {
+			RequestRecord record = entry.getKey();
+			PostRequest postRequest = entry.getValue();
+			ApplicationInterfaceInformation information = ApplicationInterfacesProperties
+					.get(postRequest.getClassName());
+
+			AdmissionControl admission = Bulkhead.forClass(postRequest.getClassName());
+			if (admission == null) {
+				admission = shared;
+			}
+
+			if (information.isSafe(postRequest.getMethodName()) && admission.tryAcquire(1)) {
+				try {
+					admission.submit(executor, new AppBusProxy(postRequest, record));
+					long timeout = information.getTimeout() > 0 ? information.getTimeout() : defaultTimeout;
+					if (timeout > 0) {
+						Deadlines.schedule(record, timeout);
+					}
+					System.out.println(PROXY + "Interrupted request " + record.getId() + " invoked again.");
+					continue;
+				} catch (RejectedExecutionException e) {
+					admission.release();
+				}
+			}
+
+			System.out.println(PROXY + "Interrupted request " + record.getId() + " failed.");
+			if (record.fail()) {
+				retention.finished(record.getId());
+			}
+		}
+	}
+
+	private static void loadApplicationInterfacesProperties(ServletContext context) {
+
+		String location = context.getInitParameter(PROPERTIES_PARAM);
+
+		InputStream in = null;
+		try {
+			if (location != null) {
+				in = new FileInputStream(location);
+			} else {
+				location = PROPERTIES_RESOURCE;
+				in = Thread.currentThread().getContextClassLoader().getResourceAsStream(PROPERTIES_RESOURCE);
+			}
+
+			if (in == null) {
+				System.out.println(PROXY + "No ApplicationInterfacesProperties found. Using default settings.");
+				return;
+			}
+
+			System.out.println(PROXY + "Reading ApplicationInterfacesProperties from: " + location);
+			ApplicationInterfacesProperties.load(in);
+
+		} catch (IOException | ParserConfigurationException | SAXException | NumberFormatException e) {
+			System.out.println(PROXY + "Can't read ApplicationInterfacesProperties. Using default settings.");
+			e.printStackTrace();
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
 	}
 
 }
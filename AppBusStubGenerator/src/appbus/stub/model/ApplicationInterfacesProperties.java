@@ -8,6 +8,7 @@
 
 package appbus.stub.model;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
 import javax.xml.bind.annotation.XmlAccessType;
@@ -37,6 +38,33 @@ import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
  *               &lt;restriction base="{http://www.w3.org/2001/XMLSchema}anyType">
  *                 &lt;attribute name="name" use="required" type="{http://www.w3.org/2001/XMLSchema}NCName" />
  *                 &lt;attribute name="class" use="required" type="{http://www.w3.org/2001/XMLSchema}string" />
+ *                 &lt;attribute name="instanceScope" default="call">
+ *                   &lt;simpleType>
+ *                     &lt;restriction base="{http://www.w3.org/2001/XMLSchema}string">
+ *                       &lt;enumeration value="singleton"/>
+ *                       &lt;enumeration value="thread"/>
+ *                       &lt;enumeration value="pool"/>
+ *                       &lt;enumeration value="call"/>
+ *                     &lt;/restriction>
+ *                   &lt;/simpleType>
+ *                 &lt;/attribute>
+ *                 &lt;attribute name="poolSize" type="{http://www.w3.org/2001/XMLSchema}positiveInteger" />
+ *                 &lt;attribute name="maxConcurrency" type="{http://www.w3.org/2001/XMLSchema}positiveInteger" />
+ *                 &lt;attribute name="maxQueued" type="{http://www.w3.org/2001/XMLSchema}nonNegativeInteger" />
+ *                 &lt;attribute name="priority" type="{http://www.w3.org/2001/XMLSchema}int" default="0" />
+ *                 &lt;attribute name="timeout" type="{http://www.w3.org/2001/XMLSchema}positiveInteger" />
+ *                 &lt;attribute name="safeOperations">
+ *                   &lt;simpleType>
+ *                     &lt;list itemType="{http://www.w3.org/2001/XMLSchema}string" />
+ *                   &lt;/simpleType>
+ *                 &lt;/attribute>
+ *                 &lt;attribute name="cacheableOperations">
+ *                   &lt;simpleType>
+ *                     &lt;list itemType="{http://www.w3.org/2001/XMLSchema}string" />
+ *                   &lt;/simpleType>
+ *                 &lt;/attribute>
+ *                 &lt;attribute name="cacheSize" type="{http://www.w3.org/2001/XMLSchema}positiveInteger" />
+ *                 &lt;attribute name="cacheTtl" type="{http://www.w3.org/2001/XMLSchema}positiveInteger" />
  *               &lt;/restriction>
  *             &lt;/complexContent>
  *           &lt;/complexType>
@@ -100,6 +128,33 @@ public class ApplicationInterfacesProperties {
      *     &lt;restriction base="{http://www.w3.org/2001/XMLSchema}anyType">
      *       &lt;attribute name="name" use="required" type="{http://www.w3.org/2001/XMLSchema}NCName" />
      *       &lt;attribute name="class" use="required" type="{http://www.w3.org/2001/XMLSchema}string" />
+     *       &lt;attribute name="instanceScope" default="call">
+     *         &lt;simpleType>
+     *           &lt;restriction base="{http://www.w3.org/2001/XMLSchema}string">
+     *             &lt;enumeration value="singleton"/>
+     *             &lt;enumeration value="thread"/>
+     *             &lt;enumeration value="pool"/>
+     *             &lt;enumeration value="call"/>
+     *           &lt;/restriction>
+     *         &lt;/simpleType>
+     *       &lt;/attribute>
+     *       &lt;attribute name="poolSize" type="{http://www.w3.org/2001/XMLSchema}positiveInteger" />
+     *       &lt;attribute name="maxConcurrency" type="{http://www.w3.org/2001/XMLSchema}positiveInteger" />
+     *       &lt;attribute name="maxQueued" type="{http://www.w3.org/2001/XMLSchema}nonNegativeInteger" />
+     *       &lt;attribute name="priority" type="{http://www.w3.org/2001/XMLSchema}int" default="0" />
+     *       &lt;attribute name="timeout" type="{http://www.w3.org/2001/XMLSchema}positiveInteger" />
+     *       &lt;attribute name="safeOperations">
+     *         &lt;simpleType>
+     *           &lt;list itemType="{http://www.w3.org/2001/XMLSchema}string" />
+     *         &lt;/simpleType>
+     *       &lt;/attribute>
+     *       &lt;attribute name="cacheableOperations">
+     *         &lt;simpleType>
+     *           &lt;list itemType="{http://www.w3.org/2001/XMLSchema}string" />
+     *         &lt;/simpleType>
+     *       &lt;/attribute>
+     *       &lt;attribute name="cacheSize" type="{http://www.w3.org/2001/XMLSchema}positiveInteger" />
+     *       &lt;attribute name="cacheTtl" type="{http://www.w3.org/2001/XMLSchema}positiveInteger" />
      *     &lt;/restriction>
      *   &lt;/complexContent>
      * &lt;/complexType>
@@ -117,6 +172,32 @@ public class ApplicationInterfacesProperties {
         protected String name;
         @XmlAttribute(name = "class", required = true)
         protected String clazz;
+        @XmlAttribute(name = "instanceScope")
+        protected String instanceScope;
+        @XmlAttribute(name = "poolSize")
+        @XmlSchemaType(name = "positiveInteger")
+        protected BigInteger poolSize;
+        @XmlAttribute(name = "maxConcurrency")
+        @XmlSchemaType(name = "positiveInteger")
+        protected BigInteger maxConcurrency;
+        @XmlAttribute(name = "maxQueued")
+        @XmlSchemaType(name = "nonNegativeInteger")
+        protected BigInteger maxQueued;
+        @XmlAttribute(name = "priority")
+        protected Integer priority;
+        @XmlAttribute(name = "timeout")
+        @XmlSchemaType(name = "positiveInteger")
+        protected BigInteger timeout;
+        @XmlAttribute(name = "safeOperations")
+        protected List<String> safeOperations;
+        @XmlAttribute(name = "cacheableOperations")
+        protected List<String> cacheableOperations;
+        @XmlAttribute(name = "cacheSize")
+        @XmlSchemaType(name = "positiveInteger")
+        protected BigInteger cacheSize;
+        @XmlAttribute(name = "cacheTtl")
+        @XmlSchemaType(name = "positiveInteger")
+        protected BigInteger cacheTtl;
 
         /**
          * Ruft den Wert der name-Eigenschaft ab.
@@ -166,6 +247,264 @@ public class ApplicationInterfacesProperties {
             this.clazz = value;
         }
 
+        /**
+         * Ruft den Wert der instanceScope-Eigenschaft ab.
+         * 
+         * @return
+         *     possible object is
+         *     {@link String }
+         *     
+         */
+        public String getInstanceScope() {
+            if (instanceScope == null) {
+                return "call";
+            } else {
+                return instanceScope;
+            }
+        }
+
+        /**
+         * Legt den Wert der instanceScope-Eigenschaft fest.
+         * 
+         * @param value
+         *     allowed object is
+         *     {@link String }
+         *     
+         */
+        public void setInstanceScope(String value) {
+            this.instanceScope = value;
+        }
+
+        /**
+         * Ruft den Wert der poolSize-Eigenschaft ab.
+         * 
+         * @return
+         *     possible object is
+         *     {@link BigInteger }
+         *     
+         */
+        public BigInteger getPoolSize() {
+            return poolSize;
+        }
+
+        /**
+         * Legt den Wert der poolSize-Eigenschaft fest.
+         * 
+         * @param value
+         *     allowed object is
+         *     {@link BigInteger }
+         *     
+         */
+        public void setPoolSize(BigInteger value) {
+            this.poolSize = value;
+        }
+
+        /**
+         * Ruft den Wert der maxConcurrency-Eigenschaft ab.
+         * 
+         * @return
+         *     possible object is
+         *     {@link BigInteger }
+         *     
+         */
+        public BigInteger getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        /**
+         * Legt den Wert der maxConcurrency-Eigenschaft fest.
+         * 
+         * @param value
+         *     allowed object is
+         *     {@link BigInteger }
+         *     
+         */
+        public void setMaxConcurrency(BigInteger value) {
+            this.maxConcurrency = value;
+        }
+
+        /**
+         * Ruft den Wert der maxQueued-Eigenschaft ab.
+         * 
+         * @return
+         *     possible object is
+         *     {@link BigInteger }
+         *     
+         */
+        public BigInteger getMaxQueued() {
+            return maxQueued;
+        }
+
+        /**
+         * Legt den Wert der maxQueued-Eigenschaft fest.
+         * 
+         * @param value
+         *     allowed object is
+         *     {@link BigInteger }
+         *     
+         */
+        public void setMaxQueued(BigInteger value) {
+            this.maxQueued = value;
+        }
+
+        /**
+         * Ruft den Wert der priority-Eigenschaft ab.
+         * 
+         * @return
+         *     possible object is
+         *     {@link Integer }
+         *     
+         */
+        public int getPriority() {
+            if (priority == null) {
+                return  0;
+            } else {
+                return priority;
+            }
+        }
+
+        /**
+         * Legt den Wert der priority-Eigenschaft fest.
+         * 
+         * @param value
+         *     allowed object is
+         *     {@link Integer }
+         *     
+         */
+        public void setPriority(Integer value) {
+            this.priority = value;
+        }
+
+        /**
+         * Ruft den Wert der timeout-Eigenschaft ab.
+         * 
+         * @return
+         *     possible object is
+         *     {@link BigInteger }
+         *     
+         */
+        public BigInteger getTimeout() {
+            return timeout;
+        }
+
+        /**
+         * Legt den Wert der timeout-Eigenschaft fest.
+         * 
+         * @param value
+         *     allowed object is
+         *     {@link BigInteger }
+         *     
+         */
+        public void setTimeout(BigInteger value) {
+            this.timeout = value;
+        }
+
+        /**
+         * Gets the value of the safeOperations property.
+         * 
+         * <p>
+         * This accessor method returns a reference to the live list,
+         * not a snapshot. Therefore any modification you make to the
+         * returned list will be present inside the JAXB object.
+         * This is why there is not a <CODE>set</CODE> method for the safeOperations property.
+         * 
+         * <p>
+         * For example, to add a new item, do as follows:
+         * <pre>
+         *    getSafeOperations().add(newItem);
+         * </pre>
+         * 
+         * 
+         * <p>
+         * Objects of the following type(s) are allowed in the list
+         * {@link String }
+         * 
+         * 
+         */
+        public List<String> getSafeOperations() {
+            if (safeOperations == null) {
+                safeOperations = new ArrayList<String>();
+            }
+            return this.safeOperations;
+        }
+
+        /**
+         * Gets the value of the cacheableOperations property.
+         * 
+         * <p>
+         * This accessor method returns a reference to the live list,
+         * not a snapshot. Therefore any modification you make to the
+         * returned list will be present inside the JAXB object.
+         * This is why there is not a <CODE>set</CODE> method for the cacheableOperations property.
+         * 
+         * <p>
+         * For example, to add a new item, do as follows:
+         * <pre>
+         *    getCacheableOperations().add(newItem);
+         * </pre>
+         * 
+         * 
+         * <p>
+         * Objects of the following type(s) are allowed in the list
+         * {@link String }
+         * 
+         * 
+         */
+        public List<String> getCacheableOperations() {
+            if (cacheableOperations == null) {
+                cacheableOperations = new ArrayList<String>();
+            }
+            return this.cacheableOperations;
+        }
+
+        /**
+         * Ruft den Wert der cacheSize-Eigenschaft ab.
+         * 
+         * @return
+         *     possible object is
+         *     {@link BigInteger }
+         *     
+         */
+        public BigInteger getCacheSize() {
+            return cacheSize;
+        }
+
+        /**
+         * Legt den Wert der cacheSize-Eigenschaft fest.
+         * 
+         * @param value
+         *     allowed object is
+         *     {@link BigInteger }
+         *     
+         */
+        public void setCacheSize(BigInteger value) {
+            this.cacheSize = value;
+        }
+
+        /**
+         * Ruft den Wert der cacheTtl-Eigenschaft ab.
+         * 
+         * @return
+         *     possible object is
+         *     {@link BigInteger }
+         *     
+         */
+        public BigInteger getCacheTtl() {
+            return cacheTtl;
+        }
+
+        /**
+         * Legt den Wert der cacheTtl-Eigenschaft fest.
+         * 
+         * @param value
+         *     allowed object is
+         *     {@link BigInteger }
+         *     
+         */
+        public void setCacheTtl(BigInteger value) {
+            this.cacheTtl = value;
+        }
+
     }
 
 }